@@ -0,0 +1,20 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 运维接口配置  对应 application.yaml 中的 hmdp.admin
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 运维接口(补充库存、对账、准入速率)的访问令牌，请求头 X-Admin-Token 必须与之相同
+     * 不提供默认值，为空时运维接口全部拒绝
+     */
+    private String token;
+}
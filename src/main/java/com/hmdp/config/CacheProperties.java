@@ -0,0 +1,102 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存相关配置  对应 application.yaml 中的 hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 写入缓存使用的编解码器：json / binary，读取时两种格式都能识别
+     * 从json切换为binary需要在所有节点都升级到能识别binary的版本之后进行
+     */
+    private String codec = "json";
+
+    /** 进程内一级缓存(L1) */
+    private Local local = new Local();
+
+    /**
+     * 按缓存前缀配置的过期时间策略，key为前缀，yaml中需写成 "[cache:shop:]"
+     */
+    private Map<String, Ttl> ttlPolicies = new HashMap<>();
+
+    /** 缓存重建线程池 */
+    private Rebuild rebuild = new Rebuild();
+
+    /** 启动预热 */
+    private Warmup warmup = new Warmup();
+
+    /** 缓存穿透布隆过滤器 */
+    private Bloom bloom = new Bloom();
+
+    @Data
+    public static class Local {
+        /** 是否开启，关闭时所有查询直接走redis */
+        private boolean enabled = false;
+        /** 最大条目数，超出后按访问频率淘汰 */
+        private long maximumSize = 10000;
+        /** 写入后过期时间(秒)，兜底跨节点失效消息丢失的情况 */
+        private long expireSeconds = 60;
+    }
+
+    @Data
+    public static class Bloom {
+        /** 是否开启 */
+        private boolean enabled = false;
+        /** 预计元素数量，决定位数组大小 */
+        private long expectedInsertions = 100000;
+        /** 期望误判率 */
+        private double fpp = 0.01;
+        /** 定时全量重建的cron表达式，"-"表示不定时重建 */
+        private String rebuildCron = "-";
+    }
+
+    @Data
+    public static class Rebuild {
+        /** 线程数 */
+        private int poolSize = 10;
+        /** 等待队列长度，满了之后新的重建任务被拒绝 */
+        private int queueCapacity = 1000;
+        /** 关闭应用时等待剩余任务的时间(秒) */
+        private long shutdownTimeoutSeconds = 10;
+    }
+
+    @Data
+    public static class Ttl {
+        /** 随机抖动比例，实际TTL在 基础TTL*(1±jitterRatio) 之间 */
+        private double jitterRatio = 0.1;
+        /** TTL下限(秒) */
+        private long minSeconds = 60;
+        /** TTL上限(秒)，0表示不限制 */
+        private long maxSeconds = 0;
+        /** 是否按访问频率调整TTL */
+        private boolean adaptive = false;
+        /** 近期访问次数达到该值视为热点，TTL不再缩短 */
+        private int hotThreshold = 10;
+        /** 从未访问过的key的TTL系数 */
+        private double coldFactor = 0.5;
+        /** 热点key的最大TTL系数 */
+        private double hotFactor = 2.0;
+    }
+
+    @Data
+    public static class Warmup {
+        /** 是否开启，开启后预热完成前应用不会进入就绪状态 */
+        private boolean enabled = false;
+        /** 预热的热门店铺数量(按销量、评分排序) */
+        private int shopLimit = 1000;
+        /** 每批从数据库读取并写入redis的数量 */
+        private int batchSize = 200;
+        /** 同时写入redis的批次数 */
+        private int parallelism = 4;
+    }
+}
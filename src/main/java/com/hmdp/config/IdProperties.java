@@ -0,0 +1,56 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 全局id生成配置  对应 application.yaml 中的 hmdp.id
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdProperties {
+
+    /**
+     * incr：每个id一次 INCR；segment：用 INCRBY 一次租用一段序列号，在本地分配
+     * 两种模式使用同一个计数key，可以随时切换，生成的id不会重复
+     */
+    private String mode = "segment";
+
+    /**
+     * 按前缀指定生成方式，未配置的前缀使用 mode；额外支持 snowflake：本地生成，不依赖redis计数
+     * snowflake 的id最高位(第62位)为1，与另外两种模式生成的id不会重复，可以对已有前缀切换
+     */
+    private Map<String, String> prefixModes = new HashMap<>();
+
+    /** 号段模式 */
+    private Segment segment = new Segment();
+
+    @Data
+    public static class Segment {
+        /** 每次租用的序列号数量 */
+        private int step = 1000;
+        /** 当前号段剩余比例低于该值时异步预取下一个号段 */
+        private double prefetchRatio = 0.2;
+    }
+
+    /** snowflake：1位标记 + 40位时间(毫秒，从2022-01-01起) + 10位机器号 + 12位序列号 */
+    private Snowflake snowflake = new Snowflake();
+
+    @Data
+    public static class Snowflake {
+        /** 机器号在redis中的租期(秒)，节点宕机后超过租期其他节点才能使用该机器号 */
+        private long leaseSeconds = 30;
+        /** 续期间隔(秒) */
+        private long heartbeatSeconds = 10;
+        /** 允许的时钟回拨(毫秒)，范围内继续使用上次的时间，超过则拒绝生成 */
+        private long maxBackwardMillis = 10;
+        /** 同一毫秒序列号用完时：wait 等待下一毫秒；borrow 借用后面的毫秒，最多领先时钟 maxBorrowMillis */
+        private String exhaustion = "wait";
+        private long maxBorrowMillis = 5;
+    }
+}
@@ -1,9 +1,11 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokens;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -11,15 +13,24 @@ import javax.annotation.Resource;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
+    /** 运维接口，不需要登录，只接受 AdminInterceptor 校验的内部调用 */
+    private static final String[] ADMIN_PATHS = {
+            "/voucher/seckill/*/stock", "/voucher/seckill/reconcile", "/voucher-order/admission/**"};
+
+    @Resource
+    private AdminProperties adminProperties;
+    @Resource
+    private LoginSessionCache loginSessionCache;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SignedTokens signedTokens;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor()).
         excludePathPatterns("/user/code","/user/login",
                 "/blog/hot","/shop/**","/shop-type/**",
-                "/upload/**").order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+                "/upload/**").excludePathPatterns(ADMIN_PATHS).order(1);
+        registry.addInterceptor(new AdminInterceptor(adminProperties)).addPathPatterns(ADMIN_PATHS).order(1);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokens)).addPathPatterns("/**").order(0);
     }
 }
@@ -0,0 +1,118 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 秒杀相关配置  对应 application.yaml 中的 hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 是否在redis中完成秒杀资格判断并异步写入订单
+     * 关闭时使用原来的同步流程(查询数据库、加锁、扣减库存、写入订单)
+     */
+    private boolean asyncOrder = true;
+
+    /** 订单stream消费 */
+    private Stream stream = new Stream();
+
+    /** 分段库存 */
+    private Segment segment = new Segment();
+
+    @Data
+    public static class Segment {
+        /** 单个秒杀券允许的最大分段数 */
+        private int maxSegments = 64;
+        /** 再平衡检查的间隔(毫秒) */
+        private long rebalanceIntervalMillis = 1000;
+    }
+
+    /** 准入控制(本节点每个秒杀券一个令牌桶) */
+    private Admission admission = new Admission();
+
+    @Data
+    public static class Admission {
+        private boolean enabled = true;
+        /** 集群节点数，剩余库存和消耗速度按节点数平分 */
+        private int nodes = 1;
+        /** 还没有库存消耗时的速率(每秒) */
+        private double initialRate = 1000;
+        private double minRate = 50;
+        private double maxRate = 20000;
+        /** 速率 = 消耗速度 * headroom，也是每个周期速率最多提高的倍数 */
+        private double headroom = 1.5;
+        /** 桶容量 = 剩余库存 * burstRatio */
+        private double burstRatio = 1.0;
+        private long minBurst = 10;
+        private long maxBurst = 5000;
+        /** 按库存调整令牌桶的间隔(毫秒) */
+        private long refreshMillis = 1000;
+    }
+
+    /** 同步流程中的一人一单购买锁 */
+    private Guard guard = new Guard();
+
+    @Data
+    public static class Guard {
+        /** local：本JVM内的分段锁，只适合单节点；redis：分布式锁，适合多节点部署 */
+        private String type = "local";
+        /** 获取锁最多等待的时间(毫秒)，超时直接返回失败 */
+        private long waitMillis = 500;
+        /** local：锁分段数量，会向上取整为2的幂 */
+        private int stripes = 1024;
+        /** redis：锁的租期(秒)，持有期间自动续期 */
+        private long leaseSeconds = 10;
+    }
+
+    /** 未支付订单超时取消 */
+    private OrderTimeout orderTimeout = new OrderTimeout();
+
+    @Data
+    public static class OrderTimeout {
+        private boolean enabled = true;
+        /** 下单后超过该时间未支付自动取消(分钟) */
+        private long timeoutMinutes = 15;
+        /** 本节点轮询延时队列的线程数 */
+        private int workers = 2;
+        /** 每次认领并取消的最大订单数 */
+        private int batchSize = 100;
+        /** 没有到期订单时的轮询间隔(毫秒) */
+        private long pollMillis = 1000;
+        /** 认领的租期(秒)，到期未处理完(节点宕机)的订单重新出现在队列中 */
+        private long leaseSeconds = 30;
+    }
+
+    /** redis与数据库对账 */
+    private Reconcile reconcile = new Reconcile();
+
+    @Data
+    public static class Reconcile {
+        /** 定时对账的cron表达式，"-"表示只手动触发 */
+        private String cron = "-";
+        /** 是否修复不一致，关闭时只报告 */
+        private boolean repair = false;
+        /** 每批从数据库游标或 SSCAN 处理的数量 */
+        private int batchSize = 500;
+        /** 每秒最多处理的订单和下单用户数，避免影响进行中的秒杀 */
+        private int rowsPerSecond = 5000;
+    }
+
+    @Data
+    public static class Stream {
+        /** 消费者名称，同一个消费者组内唯一，为空时使用主机名 */
+        private String consumerName;
+        /** 每次读取并写入数据库的最大订单数 */
+        private int batchSize = 100;
+        /** 没有新消息时阻塞等待的时间(毫秒) */
+        private long blockMillis = 2000;
+        /** 消息超过该时间未确认视为消费者已宕机，由其他消费者接管(秒) */
+        private long claimIdleSeconds = 30;
+        /** 检查待确认消息的间隔(秒) */
+        private long claimIntervalSeconds = 10;
+    }
+}
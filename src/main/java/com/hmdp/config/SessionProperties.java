@@ -0,0 +1,61 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 登录状态配置  对应 application.yaml 中的 hmdp.session
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.session")
+public class SessionProperties {
+
+    /**
+     * 登录时签发的token：redis 随机token，登录状态保存在redis；signed 签名token，携带用户信息和过期时间，校验不访问redis
+     * signed 模式下仍然接受已签发的随机token；redis 模式下不接受签名token
+     */
+    private String mode = "redis";
+
+    /** redis中剩余有效期低于该值(分钟)时才发送 EXPIRE 续期，有效期为 LOGIN_USER_TTL */
+    private long refreshBelowMinutes = 20;
+
+    /**
+     * 登录状态hash使用短字段名(i/n/c)，读取时新旧字段名都能识别
+     * 需要在所有节点都升级到能识别短字段名的版本之后开启
+     */
+    private boolean compactHash = false;
+
+    /** 进程内的登录状态缓存 */
+    private NearCache nearCache = new NearCache();
+
+    @Data
+    public static class NearCache {
+        /** 是否开启，关闭时每个请求都查询redis */
+        private boolean enabled = true;
+        /** 最大条目数 */
+        private long maximumSize = 10000;
+        /** 写入后过期时间(秒)，兜底跨节点注销消息丢失的情况 */
+        private long expireSeconds = 5;
+    }
+
+    /** 签名token */
+    private Signed signed = new Signed();
+
+    @Data
+    public static class Signed {
+        /** 签发新token使用的密钥id，signed 模式下必须配置，否则启动失败 */
+        private String activeKey;
+        /**
+         * 密钥id -> 密钥(至少32字节)，用其中任意一个签名的token都能通过校验；不提供默认值，通过环境变量等方式配置
+         * 轮换：先在所有节点加入新密钥，再切换 activeKey，旧token全部过期后删除旧密钥
+         */
+        private Map<String, String> keys = new LinkedHashMap<>();
+        /** 从redis全量同步吊销列表的间隔(毫秒)，兜底丢失的吊销消息 */
+        private long denySyncMillis = 30000;
+    }
+}
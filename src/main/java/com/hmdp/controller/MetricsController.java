@@ -0,0 +1,175 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillReconciler;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherRegistry;
+import com.hmdp.utils.SeckillVoucherStates;
+import com.hmdp.utils.SignedTokens;
+import com.hmdp.utils.VoucherOrderStreamConsumer;
+import com.hmdp.utils.VoucherOrderTimeouts;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运行指标查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheWarmer cacheWarmer;
+    @Resource
+    private VoucherOrderStreamConsumer voucherOrderStreamConsumer;
+    @Resource
+    private SeckillVoucherStates seckillVoucherStates;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+    @Resource
+    private SeckillAdmission seckillAdmission;
+    @Resource
+    private SeckillVoucherRegistry seckillVoucherRegistry;
+    @Resource
+    private VoucherOrderTimeouts voucherOrderTimeouts;
+    @Resource
+    private SeckillReconciler seckillReconciler;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokens signedTokens;
+
+    /**
+     * 缓存命中统计
+     * @return 各级缓存的命中/未命中次数
+     */
+    @GetMapping("/cache")
+    public Result cacheStats() {
+        return Result.ok(cacheClient.stats());
+    }
+
+    /**
+     * 缓存预热进度
+     * @return 是否完成，以及各类数据已写入的数量
+     */
+    @GetMapping("/warmup")
+    public Result warmupStats() {
+        return Result.ok(cacheWarmer.stats());
+    }
+
+    /**
+     * 秒杀订单异步写入统计
+     * @return 吞吐量、批大小、stream长度、待确认数量、写入延迟
+     */
+    @GetMapping("/seckill-orders")
+    public Result seckillOrderStats() {
+        return Result.ok(voucherOrderStreamConsumer.stats());
+    }
+
+    /**
+     * 本节点已知不可购买的秒杀券
+     * @return 售罄、未开始、已结束的秒杀券数量，以及本地直接拒绝的请求数
+     */
+    @GetMapping("/seckill-states")
+    public Result seckillStateStats() {
+        return Result.ok(seckillVoucherStates.stats());
+    }
+
+    /**
+     * 一人一单购买锁的竞争情况
+     * @return 获取次数、竞争次数、超时次数、等待时间
+     */
+    @GetMapping("/purchase-guard")
+    public Result purchaseGuardStats() {
+        return Result.ok(voucherOrderService.purchaseGuardStats());
+    }
+
+    /**
+     * 分段库存
+     * @return 本节点已知的分段库存秒杀券及分段数，再平衡次数
+     */
+    @GetMapping("/seckill-segments")
+    public Result seckillSegmentStats() {
+        return Result.ok(seckillStockSegments.stats());
+    }
+
+    /**
+     * 秒杀准入控制
+     * @return 各秒杀券的令牌桶速率、容量，放行和拒绝的请求数
+     */
+    @GetMapping("/seckill-admission")
+    public Result seckillAdmissionStats() {
+        return Result.ok(seckillAdmission.stats());
+    }
+
+    /**
+     * 本节点缓存的秒杀券元数据
+     * @return 已加载、未开始、进行中的秒杀券数量
+     */
+    @GetMapping("/seckill-vouchers")
+    public Result seckillVoucherStats() {
+        return Result.ok(seckillVoucherRegistry.stats());
+    }
+
+    /**
+     * 未支付订单超时取消
+     * @return 入队、认领、取消、跳过的订单数，队列长度和已到期数量
+     */
+    @GetMapping("/order-timeouts")
+    public Result orderTimeoutStats() {
+        return Result.ok(voucherOrderTimeouts.stats());
+    }
+
+    /**
+     * 最近一次redis与数据库对账
+     * @return 耗时、限速等待时间、不一致的秒杀券明细，是否正在对账
+     */
+    @GetMapping("/seckill-reconcile")
+    public Result seckillReconcileStats() {
+        return Result.ok(seckillReconciler.lastReport());
+    }
+
+    /**
+     * 全局id生成
+     * @return 各前缀租用的号段数、预取命中率、当前号段剩余数量
+     */
+    @GetMapping("/id")
+    public Result idStats() {
+        return Result.ok(redisIdWorker.stats());
+    }
+
+    /**
+     * 登录状态本地缓存
+     * @return 本地命中率、续期次数，相比每个请求 HGETALL + EXPIRE 节省的redis命令数和往返次数
+     */
+    @GetMapping("/session")
+    public Result sessionStats() {
+        return Result.ok(loginSessionCache.stats());
+    }
+
+    /**
+     * 签名token
+     * @return 签发、续签、校验失败原因的次数，吊销列表大小
+     */
+    @GetMapping("/signed-session")
+    public Result signedSessionStats() {
+        return Result.ok(signedTokens.stats());
+    }
+}
@@ -10,6 +10,7 @@ import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -36,6 +37,16 @@ public class ShopController {
         return shopService.queryByID(id);
     }
 
+    /**
+     * 根据id批量查询商铺信息
+     * @param ids 商铺id，多个以','隔开
+     * @return 与ids顺序一致的商铺列表，不存在的商铺为null
+     */
+    @GetMapping("/batch")
+    public Result queryShopByIds(@RequestParam("ids") List<Long> ids) {
+        return shopService.queryByIds(ids);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -43,10 +54,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -3,10 +3,13 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillReconciler;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.Map;
 
 /**
  * <p>
@@ -22,6 +25,10 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillReconciler seckillReconciler;
 
     /**
      * 新增普通券
@@ -45,6 +52,39 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存，运维接口，需要请求头 X-Admin-Token
+     * @param id 优惠券id
+     * @param amount 增加的库存数量
+     * @return 无
+     */
+    @PutMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long id, @RequestParam("amount") Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("库存数量必须大于0！");
+        }
+        if (!seckillVoucherService.addStock(id, amount)) {
+            return Result.fail("优惠券不存在！");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * redis秒杀状态与数据库对账，运维接口，需要请求头 X-Admin-Token
+     * @param voucherId 只检查该秒杀券，不传时检查所有redis中的秒杀券
+     * @param repair 是否修复不一致，不传时使用配置
+     * @return 对账报告：耗时、检查的数量、不一致的秒杀券明细
+     */
+    @PostMapping("seckill/reconcile")
+    public Result reconcileSeckill(@RequestParam(value = "voucherId", required = false) Long voucherId,
+                                   @RequestParam(value = "repair", required = false) Boolean repair) {
+        Map<String, Object> report = seckillReconciler.reconcile(voucherId, repair);
+        if (report == null) {
+            return Result.fail("对账正在进行中！");
+        }
+        return Result.ok(report);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,8 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.SeckillAdmission;
+import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
@@ -23,9 +21,39 @@ import javax.annotation.Resource;
 public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillAdmission seckillAdmission;
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 为秒杀券指定本节点的准入速率和令牌桶容量，不再按库存自动调整，运维接口，需要请求头 X-Admin-Token
+     * @param voucherId 优惠券id
+     * @param rate 每秒放行的请求数
+     * @param burst 令牌桶容量(瞬间最多放行的请求数)
+     * @return 无
+     */
+    @PutMapping("admission/{id}")
+    public Result overrideAdmission(@PathVariable("id") Long voucherId,
+                                    @RequestParam("rate") Double rate, @RequestParam("burst") Long burst) {
+        if (rate <= 0 || burst <= 0) {
+            return Result.fail("速率和容量必须大于0！");
+        }
+        seckillAdmission.override(voucherId, rate, burst);
+        return Result.ok();
+    }
+
+    /**
+     * 取消指定的准入速率，恢复按库存自动调整，运维接口，需要请求头 X-Admin-Token
+     * @param voucherId 优惠券id
+     * @return 无
+     */
+    @DeleteMapping("admission/{id}")
+    public Result clearAdmission(@PathVariable("id") Long voucherId) {
+        seckillAdmission.clearOverride(voucherId);
+        return Result.ok();
+    }
 }
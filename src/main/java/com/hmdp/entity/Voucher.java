@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 秒杀库存分段数，为空或1表示不分段
+     */
+    @TableField(exist = false)
+    private Integer stockSegments;
+
     /**
      * 生效时间
      */
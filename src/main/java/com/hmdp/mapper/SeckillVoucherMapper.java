@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,6 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /** 一条UPDATE退回多个秒杀券的库存，stocks：优惠券id -> 退回数量 */
+    int returnStock(@Param("stocks") Map<Long, Integer> stocks);
 }
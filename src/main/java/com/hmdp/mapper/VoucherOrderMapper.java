@@ -2,6 +2,11 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,12 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /** 一条多行INSERT写入一批订单 */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /** 流式读取优惠券的有效订单(未取消、未退款)的下单用户，需要在事务中遍历 */
+    Cursor<Long> streamActiveBuyers(@Param("voucherId") Long voucherId);
+
+    /** 指定用户中有有效订单的用户 */
+    List<Long> selectActiveBuyers(@Param("voucherId") Long voucherId, @Param("userIds") Collection<Long> userIds);
 }
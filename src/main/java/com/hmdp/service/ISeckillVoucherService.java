@@ -13,4 +13,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    void saveToRedis(SeckillVoucher voucher);
+
+    void saveToRedis(SeckillVoucher voucher, int segments);
+
+    boolean loadToRedis(Long voucherId);
+
+    boolean addStock(Long voucherId, int amount);
 }
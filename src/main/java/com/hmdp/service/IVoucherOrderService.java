@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -16,4 +19,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     Result createVoucherOrder(Long voucherId);
+
+    Map<Long, String> createVoucherOrders(List<VoucherOrder> orders);
+
+    List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds);
+
+    Map<String, Object> purchaseGuardStats();
 }
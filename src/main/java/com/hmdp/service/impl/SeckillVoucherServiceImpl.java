@@ -1,10 +1,31 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherStates;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -16,5 +37,112 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private SeckillVoucherStates seckillVoucherStates;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    private static final DefaultRedisScript<Long> INIT_SCRIPT;
+    static {
+        INIT_SCRIPT = new DefaultRedisScript<>();
+        INIT_SCRIPT.setLocation(new ClassPathResource("seckill_init.lua"));
+        INIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /** 将库存和时间窗口写入redis，库存已存在时不覆盖 */
+    @Override
+    public void saveToRedis(SeckillVoucher voucher) {
+        saveToRedis(voucher, 1);
+    }
+
+    /**
+     * 将库存和时间窗口写入redis，库存已存在时不覆盖
+     * @param segments 库存分段数，大于1时库存平均分到各个分段key
+     */
+    @Override
+    public void saveToRedis(SeckillVoucher voucher, int segments) {
+        Long voucherId = voucher.getVoucherId();
+        if (segments > 1) {
+            // 各分段不在这张券的slot中，在写入时间窗口(记录分段数)之前逐个写入
+            seckillStockSegments.init(voucherId, voucher.getStock(), segments);
+        }
+        stringRedisTemplate.execute(INIT_SCRIPT,
+                Arrays.asList(seckillKey(SECKILL_STOCK_KEY, voucherId), seckillKey(SECKILL_WINDOW_KEY, voucherId)),
+                voucher.getStock().toString(), toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime()),
+                String.valueOf(segments));
+        if (segments > 1) {
+            seckillStockSegments.putSegments(voucherId, segments);
+            stringRedisTemplate.opsForHash().put(SECKILL_SEGMENTS_KEY, voucherId.toString(), String.valueOf(segments));
+        }
+        seckillVoucherStates.publishReset(voucherId);
+        // 各节点从redis重新读取时间窗口
+        stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * redis中没有该秒杀券时从数据库加载，有有效订单(未取消、未退款)的用户也写入下单用户集合，保证一人一单
+     * 分段库存的用户写入各自所属分段的集合
+     * @return 数据库中不存在返回false
+     */
+    @Override
+    public boolean loadToRedis(Long voucherId) {
+        SeckillVoucher voucher = getById(voucherId);
+        if (voucher == null) {
+            return false;
+        }
+        Integer segments = seckillStockSegments.segmentsOf(voucherId);
+        if (segments == null) {
+            segments = seckillStockSegments.loadSegments(voucherId);
+        }
+        int count = segments == null ? 1 : segments;
+        String stockKey = count > 1 ? SeckillStockSegments.segmentKey(voucherId, 0) : seckillKey(SECKILL_STOCK_KEY, voucherId);
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(stockKey))) {
+            // 先写入下单用户，再写入库存，避免库存可用时集合还不完整
+            List<Long> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                    .select("user_id").eq("voucher_id", voucherId).notIn("status", 4, 6))
+                    .stream().map(id -> Long.valueOf(id.toString())).collect(Collectors.toList());
+            if (count > 1) {
+                seckillStockSegments.addBuyers(voucherId, count, userIds);
+            } else if (!userIds.isEmpty()) {
+                stringRedisTemplate.opsForSet().add(seckillKey(SECKILL_ORDER_KEY, voucherId),
+                        userIds.stream().map(String::valueOf).toArray(String[]::new));
+            }
+        }
+        saveToRedis(voucher, count);
+        return true;
+    }
+
+    /**
+     * 补充库存：数据库提交后再增加redis中的库存，并通知所有节点清除售罄状态
+     * redis中还没有该秒杀券时不写入，下次秒杀时会从数据库加载最新库存
+     * @return 数据库中不存在返回false
+     */
+    @Override
+    @Transactional
+    public boolean addStock(Long voucherId, int amount) {
+        boolean success = update().setSql("stock=stock+" + amount).eq("voucher_id", voucherId).update();
+        if (!success) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(seckillKey(SECKILL_STOCK_KEY, voucherId)))) {
+                    stringRedisTemplate.opsForValue().increment(seckillKey(SECKILL_STOCK_KEY, voucherId), amount);
+                } else {
+                    seckillStockSegments.addStock(voucherId, amount);
+                }
+                seckillVoucherStates.publishReset(voucherId);
+            }
+        });
+        return true;
+    }
 
+    private static String toMillis(LocalDateTime time) {
+        return String.valueOf(time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
 }
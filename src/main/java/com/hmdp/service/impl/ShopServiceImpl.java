@@ -1,26 +1,33 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -33,12 +40,19 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private RedisLock redisLock;
     @Override
     public Result queryByID(Long id) {
 
@@ -58,7 +72,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR= Executors.newFixedThreadPool(10);
+    @Override
+    public Result queryByIds(List<Long> ids) {
+        if(ids.size()> SystemConstants.MAX_BATCH_SIZE){
+            return Result.fail("一次最多查询"+SystemConstants.MAX_BATCH_SIZE+"个店铺");
+        }
+        //一次MGET 未命中的一次数据库批量查询
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY,ids,Shop.class,this::listByIds,Shop::getId,CACHE_SHOP_TTL,TimeUnit.MINUTES);
+        return Result.ok(shops);
+    }
 
     /** 使用逻辑过期解决缓存击穿 */
     public Shop queryWithLogicalExpire(Long id) {
@@ -83,19 +105,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         String lockKey=LOCK_SHOP_KEY+id;
         // 6 尝试缓存重建
         //6.1 获取互斥锁
-        boolean isLock=tryLock(lockKey);
+        String token=redisLock.tryLock(lockKey,LOCK_SHOP_TTL);
         //6.2 获取锁成功
-        if(isLock){
-            // 6.3  TODO 成功，开启独立线程，进行缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
+        if(token!=null){
+            // 6.3 成功，提交到共享的重建线程池(同一个key不重复提交，队列满时拒绝)
+            boolean submitted = cacheRebuildExecutor.submit(key, ()->{
                 try {
                     this.saveShop2Redis(id, 5*60L);
-                } catch (Exception e) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     throw new RuntimeException(e);
                 }finally {
-                    unlock(lockKey);
+                    redisLock.unlock(lockKey,token);
                 }
             });
+            // 已有重建任务或队列已满，任务不会执行，释放锁
+            if(!submitted){
+                redisLock.unlock(lockKey,token);
+            }
         }
         // 7. 不管是否成功获得锁，都返回过期缓存
         return shop;
@@ -103,45 +130,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
-    /** 解决缓存穿透的基础上，使用互斥锁解决了缓存击穿 */
+    /** 解决缓存穿透的基础上，使用互斥锁解决了缓存击穿  (同节点并发请求合并为一次回源，不再sleep递归重试) */
     public Shop queryWithMutex(Long id) {
-        String key=CACHE_SHOP_KEY + id;
-        // 查询redis缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 缓存命中
-        if(StrUtil.isNotBlank(shopJson)){
-            //存在且有商铺数据才为true
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if(shopJson!=null){
-            return null;
-        }
-        // TODO 未命中 实现缓存重建
-        String lockKey="lock:shop:"+id;
-        Shop shop = null;
-        try {
-            //获取互斥锁
-            boolean isLock = tryLock(lockKey);
-            if(!isLock){
-                Thread.sleep(50);
-                return queryWithMutex(id);    //使用了return递归调用
-            }
-            shop = getById(id);
-            //Thread.sleep(200);   //模拟延迟
-            //数据库中不存在
-            if(shop == null){
-                //TODO 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
-                return null;
-            }
-            //数据库中存在  重建线程
-            stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            unlock(lockKey);
-        }
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY,id,Shop.class,this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES,LOCK_SHOP_KEY);
     }
 
     /** 通过缓存空对象，解决了缓存穿透 */
@@ -171,14 +162,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-    private boolean tryLock(String key){
-        Boolean flag= stringRedisTemplate.opsForValue().setIfAbsent(key,"1",10,TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
-    }
-
     /** 添加逻辑缓存时间 */
     public void saveShop2Redis(Long id,Long expireSeconds) throws InterruptedException {
         Shop shop=getById(id);
@@ -190,6 +173,70 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,JSONUtil.toJsonStr(redisData));
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器，否则新店铺会被拦截
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
+    /** 启动时从tb_shop全量构建店铺id布隆过滤器 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initBloomFilter() {
+        if(cacheProperties.getBloom().isEnabled()){
+            rebuildBloomFilter();
+        }
+    }
+
+    /** 定时全量重建，清除已删除店铺的id，cron为"-"时不执行 */
+    @Scheduled(cron = "${hmdp.cache.bloom.rebuild-cron:-}")
+    public void scheduledRebuildBloomFilter() {
+        if(cacheProperties.getBloom().isEnabled()){
+            rebuildBloomFilter();
+        }
+    }
+
+    private static final int BLOOM_LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 按id分批扫描tb_shop构建新的过滤器，构建完成后整体替换旧过滤器
+     * 扫描期间 saveShop 新增的店铺(包括其他节点广播的)同时写入新过滤器，不依赖id递增
+     */
+    public void rebuildBloomFilter() {
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        long start = System.currentTimeMillis();
+        long expected = Math.max(bloom.getExpectedInsertions(), count());
+        IdBloomFilter filter = new IdBloomFilter(expected, bloom.getFpp());
+        cacheClient.beginBloomFilterRebuild(CACHE_SHOP_KEY, filter);
+        try {
+            loadShopIds(filter);
+            cacheClient.putBloomFilter(CACHE_SHOP_KEY, filter);
+        } finally {
+            cacheClient.endBloomFilterRebuild(CACHE_SHOP_KEY, filter);
+        }
+        log.info("店铺布隆过滤器构建完成，id数量：{}，内存：{}字节，哈希函数：{}个，耗时：{}ms",
+                filter.getInsertions(), filter.getMemoryBytes(), filter.getNumHashFunctions(),
+                System.currentTimeMillis() - start);
+    }
+
+    /** 按id分批将所有店铺加入过滤器 */
+    private void loadShopIds(IdBloomFilter filter) {
+        long lastId = 0L;
+        while (true) {
+            List<Shop> shops = query().select("id").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + BLOOM_LOAD_BATCH_SIZE).list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            for (Shop shop : shops) {
+                filter.put(shop.getId());
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -198,7 +245,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
         updateById(shop);
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+id);
+        // 提交后再删除缓存并广播一级缓存失效
+        cacheClient.deleteAfterCommit(CACHE_SHOP_KEY+id);
         return Result.ok();
     }
 }
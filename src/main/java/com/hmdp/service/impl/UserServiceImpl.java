@@ -1,17 +1,20 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SessionProperties;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokens;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -19,8 +22,6 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -40,6 +41,12 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokens signedTokens;
+    @Resource
+    private SessionProperties sessionProperties;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -72,23 +79,35 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (user == null){
             user=createUserWithPhone(phone);
         }
+        UserDTO userDTO=BeanUtil.copyProperties(user,UserDTO.class);
+        if ("signed".equals(sessionProperties.getMode())) {
+            // 签名token携带用户信息和过期时间，不保存到redis
+            return Result.ok(signedTokens.issue(userDTO));
+        }
         // TODO 生成 token 存入数据库并返回
         //7.1 随机生成token
         String token=UUID.randomUUID().toString(true);
-        //7.2 将User对象转为HashMap存储
-        UserDTO userDTO=BeanUtil.copyProperties(user,UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO,new HashMap<>(),
-                CopyOptions.create().
-                        setIgnoreNullValue(true).
-                        setFieldValueEditor((fieldName,fieldValue)->fieldValue.toString()));
-        String tokenKey=LOGIN_USER_KEY+token;
-        //存储token 并设置token有效期
-        stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
-        stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL,TimeUnit.HOURS);
+        //7.2 将User对象转为hash存储，并设置token有效期
+        loginSessionCache.save(token,userDTO);
         //返回token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        if (signedTokens.accepts(token)) {
+            // 吊销该token所属的会话，续签出的token一起失效，所有节点同步
+            signedTokens.revoke(token);
+        } else {
+            // 删除登录状态，所有节点清除本地缓存
+            loginSessionCache.revoke(token);
+        }
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
@@ -1,21 +1,43 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.PurchaseGuard;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherRegistry;
+import com.hmdp.utils.SeckillVoucherStates;
 import com.hmdp.utils.UserHolder;
-import org.springframework.aop.framework.AopContext;
+import com.hmdp.utils.VoucherOrderTimeouts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import sun.awt.AppContext;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -25,34 +47,251 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillVoucherStates seckillVoucherStates;
+    @Resource
+    private List<PurchaseGuard> purchaseGuards;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+    @Resource
+    private SeckillAdmission seckillAdmission;
+    @Resource
+    private SeckillVoucherRegistry seckillVoucherRegistry;
+    @Resource
+    private VoucherOrderTimeouts voucherOrderTimeouts;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    private PurchaseGuard purchaseGuard;
+
+    @PostConstruct
+    private void init() {
+        String type = seckillProperties.getGuard().getType();
+        purchaseGuard = purchaseGuards.stream().filter(g -> g.name().equals(type)).findFirst()
+                .orElseThrow(() -> new IllegalStateException("未知的购买锁类型：" + type));
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> SECKILL_SEGMENT_SCRIPT;
+    static {
+        SECKILL_SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SEGMENT_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SECKILL_SEGMENT_SCRIPT.setResultType(Long.class);
+    }
+
     @Override
     public Result seckillVoucher(Long voucherId){
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        // 本节点已知售罄、未开始或已结束，直接拒绝，不访问redis和数据库
+        int known = seckillVoucherStates.reject(voucherId);
+        if (known != 0) {
+            return Result.fail(seckillFailMessage(known));
+        }
+        // 超过本节点该秒杀券的令牌桶速率，直接返回
+        if (!seckillAdmission.tryAdmit(voucherId)) {
+            return Result.fail("当前抢购人数过多，请稍后重试！");
+        }
+        if (!seckillProperties.isAsyncOrder()) {
+            return seckillVoucherSync(voucherId);
+        }
+        Long userId=UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        // redis中判断秒杀资格：时间、库存、一人一单，有资格则订单写入stream，由 VoucherOrderStreamConsumer 批量写入数据库
+        long result = executeSeckillScript(voucherId, userId, orderId);
+        if (result == 5) {
+            // redis中还没有该秒杀券，从数据库加载后重试
+            if (!seckillVoucherService.loadToRedis(voucherId)) {
+                return Result.fail("优惠券不存在！");
+            }
+            result = executeSeckillScript(voucherId, userId, orderId);
+        }
+        if (result != 0) {
+            rememberState(voucherId, result);
+            return Result.fail(seckillFailMessage(result));
+        }
+        return Result.ok(orderId);
+    }
+
+    /** 记录秒杀脚本判断出的不可购买状态，之后的请求在本节点直接拒绝 */
+    private void rememberState(Long voucherId, long result) {
+        if (result == SeckillVoucherStates.SOLD_OUT) {
+            seckillVoucherStates.markSoldOut(voucherId);
+        } else if (result == SeckillVoucherStates.ENDED) {
+            seckillVoucherStates.markEnded(voucherId);
+        } else if (result == SeckillVoucherStates.NOT_STARTED) {
+            Object begin = stringRedisTemplate.opsForHash().get(seckillKey(SECKILL_WINDOW_KEY, voucherId), "begin");
+            if (begin != null) {
+                seckillVoucherStates.markNotStarted(voucherId, Long.parseLong(begin.toString()));
+            }
+        }
+    }
+
+    private long executeSeckillScript(Long voucherId, Long userId, long orderId) {
+        Integer segments = seckillStockSegments.segmentsOf(voucherId);
+        if (segments == null) {
+            String stockKey = seckillKey(SECKILL_STOCK_KEY, voucherId);
+            String buyersKey = seckillKey(SECKILL_ORDER_KEY, voucherId);
+            Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                    Arrays.asList(stockKey, seckillKey(SECKILL_WINDOW_KEY, voucherId), buyersKey),
+                    userId.toString(), String.valueOf(System.currentTimeMillis()), voucherId.toString(), SECKILL_STATE_CHANNEL);
+            if (result != null && result == 0) {
+                enqueueOrder(voucherId, userId, orderId, stockKey, buyersKey);
+            }
+            if (result == null || result != 6) {
+                return result == null ? 5 : result;
+            }
+            // 分段库存，第一次遇到时读取分段数
+            segments = seckillStockSegments.loadSegments(voucherId);
+            if (segments == null) {
+                return 5;
+            }
+        }
+        return executeSegmentScript(voucherId, userId, orderId, segments);
+    }
+
+    /**
+     * 分段库存：时间窗口在本地判断，脚本只访问用户所属分段的下单用户集合和库存(同一个slot)
+     * 所属分段扣完时用户已记入下单用户集合，再从其他分段借用一个库存，借用失败时移除用户；
+     * 所有分段都没有库存时发布售罄；再平衡取走、还没放回的库存不算售罄，返回7
+     */
+    private long executeSegmentScript(Long voucherId, Long userId, long orderId, int segments) {
+        SeckillVoucherRegistry.Window window = seckillVoucherRegistry.get(voucherId);
+        if (window == null) {
+            window = seckillVoucherRegistry.load(voucherId);
+            if (window == null) {
+                return 5;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now < window.getBeginMillis()) {
+            return SeckillVoucherStates.NOT_STARTED;
+        }
+        if (now > window.getEndMillis()) {
+            return SeckillVoucherStates.ENDED;
+        }
+        int home = SeckillStockSegments.homeSegment(userId, segments);
+        String buyersKey = SeckillStockSegments.buyersKey(voucherId, home);
+        Long result = stringRedisTemplate.execute(SECKILL_SEGMENT_SCRIPT,
+                SeckillStockSegments.homeKeys(voucherId, home), userId.toString());
+        if (result == null) {
+            return 5;
+        }
+        if (result == 0) {
+            enqueueOrder(voucherId, userId, orderId, SeckillStockSegments.segmentKey(voucherId, home), buyersKey);
+            return 0;
+        }
+        if (result != 1) {
+            return result;
+        }
+        int index;
+        try {
+            index = seckillStockSegments.borrow(voucherId, home, segments);
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForSet().remove(buyersKey, userId.toString());
+            throw e;
+        }
+        if (index >= 0) {
+            enqueueOrder(voucherId, userId, orderId, SeckillStockSegments.segmentKey(voucherId, index), buyersKey);
+            return 0;
+        }
+        stringRedisTemplate.opsForSet().remove(buyersKey, userId.toString());
+        if (seckillStockSegments.remaining(voucherId, segments) > 0) {
+            // 再平衡取走的库存还没放回，不记录售罄
+            return 7;
+        }
+        seckillVoucherStates.publishSoldOut(voucherId);
+        return 1;
+    }
+
+    /**
+     * 订单stream与秒杀券不在同一个slot，脚本成功后再写入；写入失败时退回扣减的库存并移除下单用户
+     * 两步之间节点宕机时下单用户没有订单，由对账发现后移除并修复库存
+     */
+    private void enqueueOrder(Long voucherId, Long userId, long orderId, String stockKey, String buyersKey) {
+        Map<String, String> order = new LinkedHashMap<>();
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM_KEY, order);
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForSet().remove(buyersKey, userId.toString());
+            stringRedisTemplate.opsForValue().increment(stockKey);
+            throw e;
+        }
+    }
+
+    private static String seckillFailMessage(long result) {
+        switch ((int) result) {
+            case 1:
+                return "库存不足！";
+            case 2:
+                return "您已经购买过一次了！";
+            case 3:
+                return "秒杀未开始！";
+            case 4:
+                return "秒杀已结束！";
+            case 7:
+                return "当前抢购人数过多，请稍后重试！";
+            default:
+                return "优惠券不存在！";
+        }
+    }
+
+    /** 同步流程：查询数据库判断资格，加锁后在事务中扣减库存、写入订单 */
+    private Result seckillVoucherSync(Long voucherId){
+        // 时间窗口从本地元数据读取，只有本节点还不知道的秒杀券才查询一次数据库
+        SeckillVoucherRegistry.Window window = seckillVoucherRegistry.get(voucherId);
+        if (window == null) {
+            window = seckillVoucherRegistry.load(voucherId);
+            if (window == null) {
+                return Result.fail("优惠券不存在！");
+            }
+        }
         //异常判断
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+        long now = System.currentTimeMillis();
+        if (now < window.getBeginMillis()) {
+            seckillVoucherStates.markNotStarted(voucherId, window.getBeginMillis());
             return Result.fail("秒杀未开始！");
         }
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
+        if (now > window.getEndMillis()) {
+            seckillVoucherStates.markEnded(voucherId);
             return Result.fail("秒杀已结束！");
         }
-        if(voucher.getStock() < 1)
-        {
-            return Result.fail("库存不足！");
-        }
+        // 库存由扣减语句的 stock > 0 条件判断，扣减失败时记录售罄状态
         Long userId=UserHolder.getUser().getId();
-        synchronized(userId.toString().intern()) {
-            IVoucherOrderService proxy= (IVoucherOrderService)AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
+        // 同一个用户串行下单，锁在事务提交之后才释放
+        try (PurchaseGuard.Permit permit = purchaseGuard.tryAcquire(userId, seckillProperties.getGuard().getWaitMillis())) {
+            if (permit == null) {
+                return Result.fail("下单请求处理中，请稍后重试！");
+            }
+            return createVoucherOrder(voucherId);
         }
     }
-    @Transactional
-    public  Result createVoucherOrder(Long voucherId){
+
+    /** 在编程式事务中执行，不依赖代理对象，自调用也有事务 */
+    public Result createVoucherOrder(Long voucherId){
+        return transactionTemplate.execute(status -> doCreateVoucherOrder(voucherId));
+    }
+
+    private Result doCreateVoucherOrder(Long voucherId){
         Long userId=UserHolder.getUser().getId();
         //一人一单判断
         int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
@@ -63,6 +302,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //改进   不严格判断是否修改，判断该时刻实际库存是否大于0即可
         boolean success = seckillVoucherService.update().setSql("stock=stock-1").eq("voucher_id", voucherId).gt("stock", 0).update(); //where id=? and stock=?
         if (!success) {
+            seckillVoucherStates.publishSoldOut(voucherId);
             return Result.fail("库存不足！");
         }
         //创建订单    设置订单ID、客户ID、优惠券ID
@@ -72,6 +312,109 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         order.setUserId(userId);
         order.setVoucherId(voucherId);
         save(order);
+        voucherOrderTimeouts.schedule(Collections.singletonList(orderId));
         return Result.ok(orderId);
     }
+
+    /**
+     * 批量写入已通过redis资格判断的订单：
+     * 过滤掉已写入的订单(消息重复投递) -> 一人一单检查 -> 每个优惠券一条UPDATE扣减库存 -> 一条多行INSERT写入订单
+     * 一人一单：同一批中同一用户只保留第一个，再用 FOR UPDATE 查询(voucher_id, user_id)上的有效订单，
+     *          索引上的间隙锁让其他节点同时写入同一用户的事务等待，提交后才能看到
+     * 数据库库存不足以整体扣减时(与redis不一致)，该优惠券的订单逐个扣减
+     * @return 没有写入的订单id -> 原因，由调用方转入死信stream
+     */
+    @Override
+    @Transactional
+    public Map<Long, String> createVoucherOrders(List<VoucherOrder> orders){
+        List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existing = new HashSet<>(listObjs(new QueryWrapper<VoucherOrder>().select("id").in("id", ids),
+                id -> Long.valueOf(id.toString())));
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            if (existing.add(order.getId())) {
+                byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+            }
+        }
+        Map<Long, String> rejected = new LinkedHashMap<>();
+        List<VoucherOrder> toInsert = new ArrayList<>(orders.size());
+        byVoucher.forEach((voucherId, orderGroup) -> {
+            List<VoucherOrder> group = uniqueBuyers(voucherId, orderGroup, rejected);
+            if (group.isEmpty()) {
+                return;
+            }
+            int n = group.size();
+            boolean success = seckillVoucherService.update().setSql("stock=stock-" + n)
+                    .eq("voucher_id", voucherId).ge("stock", n).update();
+            if (success) {
+                toInsert.addAll(group);
+                return;
+            }
+            for (VoucherOrder order : group) {
+                if (seckillVoucherService.update().setSql("stock=stock-1").eq("voucher_id", voucherId).gt("stock", 0).update()) {
+                    toInsert.add(order);
+                } else {
+                    log.error("优惠券{}数据库库存不足，订单{}未写入", voucherId, order.getId());
+                    rejected.put(order.getId(), "stock");
+                }
+            }
+        });
+        if (!toInsert.isEmpty()) {
+            getBaseMapper().insertBatch(toInsert);
+            voucherOrderTimeouts.schedule(toInsert.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+        }
+        return rejected;
+    }
+
+    /** 去掉同一批中重复的用户和数据库中已有有效订单的用户 */
+    private List<VoucherOrder> uniqueBuyers(Long voucherId, List<VoucherOrder> group, Map<Long, String> rejected) {
+        Map<Long, VoucherOrder> byUser = new LinkedHashMap<>();
+        for (VoucherOrder order : group) {
+            if (byUser.putIfAbsent(order.getUserId(), order) != null) {
+                rejected.put(order.getId(), "duplicate");
+            }
+        }
+        List<Object> buyers = listObjs(new QueryWrapper<VoucherOrder>().select("user_id")
+                .eq("voucher_id", voucherId).in("user_id", byUser.keySet()).notIn("status", 4, 6)
+                .last("FOR UPDATE"));
+        for (Object userId : buyers) {
+            VoucherOrder order = byUser.remove(Long.valueOf(userId.toString()));
+            if (order != null) {
+                log.error("用户{}已有优惠券{}的订单，订单{}未写入", userId, voucherId, order.getId());
+                rejected.put(order.getId(), "duplicate");
+            }
+        }
+        return new ArrayList<>(byUser.values());
+    }
+
+    /**
+     * 取消超时未支付的订单：锁定其中仍未支付的订单改为已取消，按优惠券汇总后一条UPDATE退回数据库库存
+     * 已支付、已取消或不存在的订单忽略
+     * @return 本次取消的订单
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds){
+        List<VoucherOrder> unpaid = query().select("id", "user_id", "voucher_id")
+                .in("id", orderIds).eq("status", 1).last("FOR UPDATE").list();
+        if (unpaid.isEmpty()) {
+            return unpaid;
+        }
+        List<Long> ids = unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        update().set("status", 4).in("id", ids).eq("status", 1).update();
+        Map<Long, Integer> stocks = new LinkedHashMap<>();
+        for (VoucherOrder order : unpaid) {
+            stocks.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        seckillVoucherMapper.returnStock(stocks);
+        return unpaid;
+    }
+
+    @Override
+    public Map<String, Object> purchaseGuardStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", purchaseGuard.name());
+        stats.putAll(purchaseGuard.stats());
+        return stats;
+    }
 }
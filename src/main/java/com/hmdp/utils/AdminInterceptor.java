@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.AdminProperties;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 运维接口只允许携带 X-Admin-Token 的内部调用，与登录用户无关
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+    public static final String HEADER = "X-Admin-Token";
+
+    private final AdminProperties adminProperties;
+
+    public AdminInterceptor(AdminProperties adminProperties) {
+        this.adminProperties = adminProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String expected = adminProperties.getToken();
+        String token = request.getHeader(HEADER);
+        // 没有配置令牌时关闭运维接口；比较耗时与内容无关
+        if (StrUtil.isBlank(expected) || token == null || !MessageDigest.isEqual(
+                expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
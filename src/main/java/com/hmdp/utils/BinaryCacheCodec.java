@@ -0,0 +1,411 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 紧凑二进制编解码，只支持注册了 EntitySerializer 的实体类型(Shop、Voucher、UserDTO)
+ * 格式：  固定头部 15 字节 + 实体数据
+ *      MAGIC(1) VERSION(1) 类型(1) 逻辑过期时间毫秒(8, 0表示普通缓存) 重建耗时毫秒(4, -1表示无)
+ *      实体数据：字段存在位图(varint) + 按顺序写入的非空字段
+ *      整数为zigzag varint，字符串为 长度varint + UTF-8，时间为毫秒varint
+ * MAGIC 0xC1 在UTF-8中不会出现，也就不可能是JSON的首字节，据此与JSON格式区分
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+    public static final String NAME = "binary";
+    static final byte MAGIC = (byte) 0xC1;
+    static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 15;
+
+    private final Map<Class<?>, EntitySerializer<?>> serializersByType = new HashMap<>();
+    private final EntitySerializer<?>[] serializersById = new EntitySerializer<?>[256];
+
+    public BinaryCacheCodec() {
+        register(new ShopSerializer());
+        register(new VoucherSerializer());
+        register(new UserDTOSerializer());
+    }
+
+    private void register(EntitySerializer<?> serializer) {
+        serializersByType.put(serializer.type(), serializer);
+        serializersById[serializer.typeId()] = serializer;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return serializersByType.containsKey(type);
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value, LocalDateTime expireTime, Long rebuildMillis) {
+        EntitySerializer<Object> serializer = (EntitySerializer<Object>) serializersByType.get(value.getClass());
+        if (serializer == null) {
+            throw new IllegalArgumentException("不支持二进制编码的类型: " + value.getClass());
+        }
+        Output out = new Output(128);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(serializer.typeId());
+        out.writeFixedLong(expireTime == null ? 0 : toMillis(expireTime));
+        out.writeFixedInt(rebuildMillis == null ? -1 : (int) Math.min(rebuildMillis, Integer.MAX_VALUE));
+        serializer.write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        Input in = readHeader(bytes);
+        in.pos = HEADER_LENGTH;
+        return type.cast(serializerOf(bytes, type).read(in));
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        Input in = readHeader(bytes);
+        long expireMillis = in.readFixedLong();
+        int rebuildMillis = in.readFixedInt();
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(expireMillis == 0 ? null : fromMillis(expireMillis));
+        redisData.setRebuildMillis(rebuildMillis < 0 ? null : (long) rebuildMillis);
+        redisData.setData(type.cast(serializerOf(bytes, type).read(in)));
+        return redisData;
+    }
+
+    /** 校验MAGIC和版本，返回位于过期时间处的读取器 */
+    private Input readHeader(byte[] bytes) {
+        if (!canDecode(bytes)) {
+            throw new IllegalStateException("不是二进制格式的缓存数据");
+        }
+        if (bytes[1] != VERSION) {
+            throw new IllegalStateException("不支持的缓存数据版本: " + bytes[1]);
+        }
+        Input in = new Input(bytes);
+        in.pos = 3;
+        return in;
+    }
+
+    private EntitySerializer<?> serializerOf(byte[] bytes, Class<?> type) {
+        EntitySerializer<?> serializer = serializersById[bytes[2] & 0xFF];
+        if (serializer == null || serializer.type() != type) {
+            throw new IllegalStateException("缓存数据类型不匹配，期望: " + type);
+        }
+        return serializer;
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static long bit(Object field, int index) {
+        return field == null ? 0 : 1L << index;
+    }
+
+    private static boolean has(long mask, int index) {
+        return (mask & (1L << index)) != 0;
+    }
+
+    /** 单个实体类型的序列化器，字段顺序即格式，只能在末尾追加字段 */
+    interface EntitySerializer<T> {
+        int typeId();
+
+        Class<T> type();
+
+        void write(T value, Output out);
+
+        T read(Input in);
+    }
+
+    static class ShopSerializer implements EntitySerializer<Shop> {
+        @Override
+        public int typeId() {
+            return 1;
+        }
+
+        @Override
+        public Class<Shop> type() {
+            return Shop.class;
+        }
+
+        @Override
+        public void write(Shop s, Output out) {
+            long mask = bit(s.getId(), 0) | bit(s.getName(), 1) | bit(s.getTypeId(), 2) | bit(s.getImages(), 3)
+                    | bit(s.getArea(), 4) | bit(s.getAddress(), 5) | bit(s.getX(), 6) | bit(s.getY(), 7)
+                    | bit(s.getAvgPrice(), 8) | bit(s.getSold(), 9) | bit(s.getComments(), 10) | bit(s.getScore(), 11)
+                    | bit(s.getOpenHours(), 12) | bit(s.getCreateTime(), 13) | bit(s.getUpdateTime(), 14)
+                    | bit(s.getDistance(), 15);
+            out.writeVarLong(mask);
+            if (has(mask, 0)) out.writeVarLong(s.getId());
+            if (has(mask, 1)) out.writeString(s.getName());
+            if (has(mask, 2)) out.writeVarLong(s.getTypeId());
+            if (has(mask, 3)) out.writeString(s.getImages());
+            if (has(mask, 4)) out.writeString(s.getArea());
+            if (has(mask, 5)) out.writeString(s.getAddress());
+            if (has(mask, 6)) out.writeDouble(s.getX());
+            if (has(mask, 7)) out.writeDouble(s.getY());
+            if (has(mask, 8)) out.writeVarLong(s.getAvgPrice());
+            if (has(mask, 9)) out.writeVarLong(s.getSold());
+            if (has(mask, 10)) out.writeVarLong(s.getComments());
+            if (has(mask, 11)) out.writeVarLong(s.getScore());
+            if (has(mask, 12)) out.writeString(s.getOpenHours());
+            if (has(mask, 13)) out.writeDateTime(s.getCreateTime());
+            if (has(mask, 14)) out.writeDateTime(s.getUpdateTime());
+            if (has(mask, 15)) out.writeDouble(s.getDistance());
+        }
+
+        @Override
+        public Shop read(Input in) {
+            long mask = in.readVarLong();
+            Shop s = new Shop();
+            if (has(mask, 0)) s.setId(in.readVarLong());
+            if (has(mask, 1)) s.setName(in.readString());
+            if (has(mask, 2)) s.setTypeId(in.readVarLong());
+            if (has(mask, 3)) s.setImages(in.readString());
+            if (has(mask, 4)) s.setArea(in.readString());
+            if (has(mask, 5)) s.setAddress(in.readString());
+            if (has(mask, 6)) s.setX(in.readDouble());
+            if (has(mask, 7)) s.setY(in.readDouble());
+            if (has(mask, 8)) s.setAvgPrice(in.readVarLong());
+            if (has(mask, 9)) s.setSold((int) in.readVarLong());
+            if (has(mask, 10)) s.setComments((int) in.readVarLong());
+            if (has(mask, 11)) s.setScore((int) in.readVarLong());
+            if (has(mask, 12)) s.setOpenHours(in.readString());
+            if (has(mask, 13)) s.setCreateTime(in.readDateTime());
+            if (has(mask, 14)) s.setUpdateTime(in.readDateTime());
+            if (has(mask, 15)) s.setDistance(in.readDouble());
+            return s;
+        }
+    }
+
+    static class VoucherSerializer implements EntitySerializer<Voucher> {
+        @Override
+        public int typeId() {
+            return 2;
+        }
+
+        @Override
+        public Class<Voucher> type() {
+            return Voucher.class;
+        }
+
+        @Override
+        public void write(Voucher v, Output out) {
+            long mask = bit(v.getId(), 0) | bit(v.getShopId(), 1) | bit(v.getTitle(), 2) | bit(v.getSubTitle(), 3)
+                    | bit(v.getRules(), 4) | bit(v.getPayValue(), 5) | bit(v.getActualValue(), 6) | bit(v.getType(), 7)
+                    | bit(v.getStatus(), 8) | bit(v.getStock(), 9) | bit(v.getBeginTime(), 10) | bit(v.getEndTime(), 11)
+                    | bit(v.getCreateTime(), 12) | bit(v.getUpdateTime(), 13);
+            out.writeVarLong(mask);
+            if (has(mask, 0)) out.writeVarLong(v.getId());
+            if (has(mask, 1)) out.writeVarLong(v.getShopId());
+            if (has(mask, 2)) out.writeString(v.getTitle());
+            if (has(mask, 3)) out.writeString(v.getSubTitle());
+            if (has(mask, 4)) out.writeString(v.getRules());
+            if (has(mask, 5)) out.writeVarLong(v.getPayValue());
+            if (has(mask, 6)) out.writeVarLong(v.getActualValue());
+            if (has(mask, 7)) out.writeVarLong(v.getType());
+            if (has(mask, 8)) out.writeVarLong(v.getStatus());
+            if (has(mask, 9)) out.writeVarLong(v.getStock());
+            if (has(mask, 10)) out.writeDateTime(v.getBeginTime());
+            if (has(mask, 11)) out.writeDateTime(v.getEndTime());
+            if (has(mask, 12)) out.writeDateTime(v.getCreateTime());
+            if (has(mask, 13)) out.writeDateTime(v.getUpdateTime());
+        }
+
+        @Override
+        public Voucher read(Input in) {
+            long mask = in.readVarLong();
+            Voucher v = new Voucher();
+            if (has(mask, 0)) v.setId(in.readVarLong());
+            if (has(mask, 1)) v.setShopId(in.readVarLong());
+            if (has(mask, 2)) v.setTitle(in.readString());
+            if (has(mask, 3)) v.setSubTitle(in.readString());
+            if (has(mask, 4)) v.setRules(in.readString());
+            if (has(mask, 5)) v.setPayValue(in.readVarLong());
+            if (has(mask, 6)) v.setActualValue(in.readVarLong());
+            if (has(mask, 7)) v.setType((int) in.readVarLong());
+            if (has(mask, 8)) v.setStatus((int) in.readVarLong());
+            if (has(mask, 9)) v.setStock((int) in.readVarLong());
+            if (has(mask, 10)) v.setBeginTime(in.readDateTime());
+            if (has(mask, 11)) v.setEndTime(in.readDateTime());
+            if (has(mask, 12)) v.setCreateTime(in.readDateTime());
+            if (has(mask, 13)) v.setUpdateTime(in.readDateTime());
+            return v;
+        }
+    }
+
+    static class UserDTOSerializer implements EntitySerializer<UserDTO> {
+        @Override
+        public int typeId() {
+            return 3;
+        }
+
+        @Override
+        public Class<UserDTO> type() {
+            return UserDTO.class;
+        }
+
+        @Override
+        public void write(UserDTO u, Output out) {
+            long mask = bit(u.getId(), 0) | bit(u.getNickName(), 1) | bit(u.getIcon(), 2);
+            out.writeVarLong(mask);
+            if (has(mask, 0)) out.writeVarLong(u.getId());
+            if (has(mask, 1)) out.writeString(u.getNickName());
+            if (has(mask, 2)) out.writeString(u.getIcon());
+        }
+
+        @Override
+        public UserDTO read(Input in) {
+            long mask = in.readVarLong();
+            UserDTO u = new UserDTO();
+            if (has(mask, 0)) u.setId(in.readVarLong());
+            if (has(mask, 1)) u.setNickName(in.readString());
+            if (has(mask, 2)) u.setIcon(in.readString());
+            return u;
+        }
+    }
+
+    static class Output {
+        private byte[] buf;
+        private int pos;
+
+        Output(int initialCapacity) {
+            this.buf = new byte[initialCapacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length << 1, pos + n)];
+                System.arraycopy(buf, 0, bigger, 0, pos);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeFixedInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeFixedLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        /** zigzag + varint，小的非负数只占1字节 */
+        void writeVarLong(long v) {
+            long z = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((z & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            buf[pos++] = (byte) z;
+        }
+
+        void writeDouble(double v) {
+            writeFixedLong(Double.doubleToRawLongBits(v));
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeDateTime(LocalDateTime time) {
+            writeVarLong(toMillis(time));
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[pos];
+            System.arraycopy(buf, 0, bytes, 0, pos);
+            return bytes;
+        }
+    }
+
+    static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readFixedInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long z = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                z |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (z >>> 1) ^ -(z & 1);
+        }
+
+        double readDouble() {
+            return Double.longBitsToDouble(readFixedLong());
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        LocalDateTime readDateTime() {
+            return fromMillis(readVarLong());
+        }
+    }
+}
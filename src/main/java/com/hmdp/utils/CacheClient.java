@@ -1,17 +1,36 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import static com.hmdp.utils.RedisConstants.*;
 
 
@@ -19,107 +38,631 @@ import static com.hmdp.utils.RedisConstants.*;
  *  缓存工具类封装
  *  set函数：                       设定指定TTL的缓存
  *  setWithLogicalExpire函数：      设定指定逻辑过期时间的缓存
+ *  setBatch函数：                  批量(pipeline)设定指定TTL的缓存，格式与set相同，用于预热
  *  queryWithPassThrough函数：      查询函数： 缓存空对象法解决缓存穿透
- *  queryWithLogicalExpire函数：    查询函数： 逻辑过期法解决缓存击穿
+ *  queryWithMutex函数：            查询函数： 缓存空对象法解决缓存穿透 + 互斥锁解决缓存击穿
+ *  queryBatch函数：                批量查询函数： MGET + 一次数据库批量查询 + pipeline回写
+ *  queryWithLogicalExpire函数：    查询函数： 逻辑过期法解决缓存击穿，可选按概率在过期前提前刷新
+ *  delete函数：                    删除缓存，并广播通知所有节点清除一级缓存
+ *  putBloomFilter/addToBloomFilter函数： 按缓存前缀注册id布隆过滤器/新增id(广播到所有节点)
  *  注意：    逻辑过期法只针对热点数据，所以不考虑缓存不存在的情况 热点数据需要提前加入缓存
+ *  一级缓存(L1)：  可选的进程内缓存(Caffeine, 按容量+访问频率淘汰)，位于redis(L2)之前，
+ *                 命中时不走网络也不反序列化；数据变更时通过 CACHE_INVALIDATE_CHANNEL 广播失效
+ *  布隆过滤器：   queryWithPassThrough 在访问redis前先判断id是否可能存在，一定不存在的直接返回null
+ *  过期策略：     set/setWithLogicalExpire 按key前缀的 TtlPolicy 调整TTL，避免同一批key同时过期
+ *  编解码：       写入使用 hmdp.cache.codec 指定的 CacheCodec(不支持的类型回退JSON)，读取时按首字节识别格式
  * */
 @Slf4j
 @Component
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /** 一级缓存，未开启时为null */
+    private final Cache<String, Object> localCache;
+    private final CacheRebuildExecutor rebuildExecutor;
+    private final RedisLock redisLock;
+    private final List<CacheCodec> codecs;
+    private final CacheCodec writeCodec;
+    private final CacheCodec jsonCodec;
+    private final LongAdder redisHit = new LongAdder();
+    private final LongAdder redisNullHit = new LongAdder();
+    private final LongAdder redisMiss = new LongAdder();
+    /** 缓存前缀 -> id布隆过滤器，未注册的前缀不做拦截 */
+    private final Map<String, IdBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    /** 正在全量构建、还没有替换上线的过滤器，新增的id同时写入 */
+    private final Map<String, IdBloomFilter> buildingBloomFilters = new ConcurrentHashMap<>();
+    private final LongAdder bloomRejected = new LongAdder();
+    /** 缓存前缀 -> 过期时间策略 */
+    private final Map<String, TtlPolicy> ttlPolicies = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheProperties cacheProperties,
+                       RedisMessageListenerContainer listenerContainer, List<CacheCodec> codecs,
+                       CacheRebuildExecutor rebuildExecutor, RedisLock redisLock) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.rebuildExecutor = rebuildExecutor;
+        this.redisLock = redisLock;
+        this.codecs = codecs;
+        this.writeCodec = codecOf(cacheProperties.getCodec());
+        this.jsonCodec = codecOf(JsonCacheCodec.NAME);
+        cacheProperties.getTtlPolicies().forEach((prefix, ttl) -> ttlPolicies.put(prefix,
+                new TtlPolicy(ttl.getJitterRatio(), ttl.getMinSeconds(), ttl.getMaxSeconds(),
+                        ttl.isAdaptive(), ttl.getHotThreshold(), ttl.getColdFactor(), ttl.getHotFactor())));
+        CacheProperties.Local local = cacheProperties.getLocal();
+        if (local.isEnabled()) {
+            this.localCache = Caffeine.newBuilder()
+                    .maximumSize(local.getMaximumSize())
+                    .expireAfterWrite(local.getExpireSeconds(), TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+            // 订阅失效消息，消息体为需要清除的key
+            listenerContainer.addMessageListener((message, pattern) ->
+                            localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        } else {
+            this.localCache = null;
+        }
+        // 订阅其他节点新增的id，消息体为 前缀 + BLOOM_MESSAGE_SEPARATOR + id
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(BLOOM_MESSAGE_SEPARATOR);
+            if (index > 0) {
+                putToBloomFilters(body.substring(0, index), body.substring(index + 1));
+            }
+        }, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
     }
+
+    private static final char BLOOM_MESSAGE_SEPARATOR = '#';
+
+    private CacheCodec codecOf(String name) {
+        for (CacheCodec codec : codecs) {
+            if (codec.name().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("未知的缓存编解码器: " + name);
+    }
+
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        setRaw(key, encode(value, null, null), ttlSeconds(key, time, unit), TimeUnit.SECONDS);
     }
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+    /** rebuildMillis: 本次重建耗时，用于提前刷新的概率计算 */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildMillis) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(ttlSeconds(key, time, unit));
+        setRaw(key, encode(value, expireTime, rebuildMillis), null, null);
+    }
+
+    /**
+     * 批量写入缓存，所有写入在一个pipeline中完成，用于预热
+     * 与set相同的格式和TTL策略(每个key单独抖动)，可以直接被 queryWithPassThrough/queryBatch 读取
+     * */
+    public void setBatch(Map<String, ?> entries, Long time, TimeUnit unit) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            entries.forEach((key, value) -> connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8),
+                    encode(value, null, null), Expiration.seconds(ttlSeconds(key, time, unit)),
+                    RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+    }
+
+    /**
+     * 为某个缓存前缀设置过期时间策略(随机抖动、上下限、按热度调整)
+     * */
+    public void putTtlPolicy(String keyPrefix, TtlPolicy policy) {
+        ttlPolicies.put(keyPrefix, policy);
+    }
+
+    /** 找到key匹配的最长前缀的策略 */
+    private TtlPolicy ttlPolicyOf(String key) {
+        TtlPolicy matched = null;
+        int matchedLength = -1;
+        for (Map.Entry<String, TtlPolicy> entry : ttlPolicies.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matchedLength && key.startsWith(prefix)) {
+                matched = entry.getValue();
+                matchedLength = prefix.length();
+            }
+        }
+        return matched;
+    }
+
+    /** 按策略计算实际写入的TTL(秒)，没有策略时使用调用方给定的时间 */
+    private long ttlSeconds(String key, Long time, TimeUnit unit) {
+        TtlPolicy policy = ttlPolicyOf(key);
+        long seconds = unit.toSeconds(time);
+        return policy == null ? seconds : policy.apply(key, seconds);
+    }
+
+    private void recordAccess(String key) {
+        if (!ttlPolicies.isEmpty()) {
+            TtlPolicy policy = ttlPolicyOf(key);
+            if (policy != null) {
+                policy.recordAccess(key);
+            }
+        }
+    }
+
+    private byte[] encode(Object value, LocalDateTime expireTime, Long rebuildMillis) {
+        CacheCodec codec = writeCodec.supports(value.getClass()) ? writeCodec : jsonCodec;
+        return codec.encode(value, expireTime, rebuildMillis);
+    }
+
+    /** 按首字节找到写入该数据的编解码器 */
+    private CacheCodec codecOf(byte[] raw) {
+        for (CacheCodec codec : codecs) {
+            if (codec.canDecode(raw)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存数据格式");
+    }
+
+    private <R> R decode(byte[] raw, Class<R> type) {
+        return codecOf(raw).decode(raw, type);
+    }
+
+    /** 读取原始字节，不经过 StringRedisTemplate 的字符串序列化 */
+    private byte[] getRaw(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey));
+    }
+
+    /** 写入原始字节，time为null表示不设置TTL */
+    private void setRaw(String key, byte[] value, Long time, TimeUnit unit) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> time == null
+                ? connection.stringCommands().set(rawKey, value)
+                : connection.stringCommands().set(rawKey, value, Expiration.from(time, unit), RedisStringCommands.SetOption.upsert()));
     }
     /**
      * 调用时需要指定：
      * 缓存前缀+id+返回对象类型+数据库查询函数+缓存时间
      * */
     public <R,ID>R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time,TimeUnit unit) {
+        return queryCached(keyPrefix, id, type, key -> {
+            R r = dbFallback.apply(id);
+            cacheLoaded(key, r, time, unit);
+            return r;
+        });
+    }
+
+    /**
+     * 调用时需要指定：
+     * 缓存前缀+id+返回对象类型+数据库查询函数+缓存时间+缓存互斥锁前缀
+     * 缓存穿透的基础上用互斥锁解决缓存击穿：本节点内的并发请求由 singleFlight 合并，
+     * 只有合并后的那一个请求去竞争分布式锁，分布式锁只用于节点之间互斥，未获取到锁时等待释放通知而不是轮询
+     * */
+    public <R,ID>R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit, String lockPreFix) {
+        return queryCached(keyPrefix, id, type, key -> {
+            String lockKey = lockPreFix + id;
+            for (int i = 0; ; i++) {
+                String token = redisLock.tryLock(lockKey, REBUILD_LOCK_LEASE_SECONDS);
+                if (token != null) {
+                    try {
+                        // 获取锁后再查一次，其他节点可能已经重建完成
+                        byte[] raw = getRaw(key);
+                        if (raw != null) {
+                            return raw.length > 0 ? decode(raw, type) : null;
+                        }
+                        R r = dbFallback.apply(id);
+                        cacheLoaded(key, r, time, unit);
+                        return r;
+                    } finally {
+                        redisLock.unlock(lockKey, token);
+                    }
+                }
+                // 其他节点正在重建，等待锁释放的通知后读取其结果
+                if (i >= MUTEX_MAX_RETRIES) {
+                    return dbFallback.apply(id);
+                }
+                redisLock.awaitUnlock(lockKey, MUTEX_WAIT_MILLIS);
+                byte[] raw = getRaw(key);
+                if (raw != null) {
+                    return raw.length > 0 ? decode(raw, type) : null;
+                }
+            }
+        });
+    }
+
+    /** 重建锁的租期，重建期间会自动续期 */
+    private static final long REBUILD_LOCK_LEASE_SECONDS = 10;
+    private static final int MUTEX_MAX_RETRIES = 3;
+    private static final long MUTEX_WAIT_MILLIS = 1000;
+
+    /**
+     * 批量查询：调用时需要指定
+     * 缓存前缀+id集合+返回对象类型+数据库批量查询函数(如listByIds)+从实体取id的函数+缓存时间
+     * 一级缓存/布隆过滤器过滤后只发一次MGET，未命中的id合并为一次数据库查询，回写(包括空值)在一个pipeline中完成
+     * 返回结果与ids顺序一致，不存在的位置为null
+     * */
+    public <R,ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbFallback,
+                                     Function<R,ID> idGetter, Long time, TimeUnit unit) {
+        int n = ids.size();
+        List<R> result = new ArrayList<>(Collections.nCopies(n, (R) null));
+        IdBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        // 需要查询redis的下标
+        List<Integer> remoteIndexes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ID id = ids.get(i);
+            String key = keyPrefix + id;
+            recordAccess(key);
+            if (localCache != null) {
+                Object cached = localCache.getIfPresent(key);
+                if (type.isInstance(cached)) {
+                    result.set(i, type.cast(cached));
+                    continue;
+                }
+            }
+            if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+                bloomRejected.increment();
+                continue;
+            }
+            remoteIndexes.add(i);
+        }
+        if (remoteIndexes.isEmpty()) {
+            return result;
+        }
+        // 一次MGET
+        byte[][] rawKeys = new byte[remoteIndexes.size()][];
+        for (int j = 0; j < rawKeys.length; j++) {
+            rawKeys[j] = (keyPrefix + ids.get(remoteIndexes.get(j))).getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+        // 未命中的id -> 所在下标
+        Map<String, List<Integer>> missIndexes = new LinkedHashMap<>();
+        List<ID> missIds = new ArrayList<>();
+        for (int j = 0; j < rawKeys.length; j++) {
+            int i = remoteIndexes.get(j);
+            byte[] raw = values == null ? null : values.get(j);
+            if (raw == null) {
+                redisMiss.increment();
+                String idKey = String.valueOf(ids.get(i));
+                List<Integer> indexes = missIndexes.get(idKey);
+                if (indexes == null) {
+                    indexes = new ArrayList<>(1);
+                    missIndexes.put(idKey, indexes);
+                    missIds.add(ids.get(i));
+                }
+                indexes.add(i);
+            } else if (raw.length == 0) {
+                redisNullHit.increment();
+            } else {
+                redisHit.increment();
+                R r = decode(raw, type);
+                putLocal(keyPrefix + ids.get(i), r);
+                result.set(i, r);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 一次数据库查询
+        List<R> loaded = dbFallback.apply(missIds);
+        Map<byte[], byte[]> toCache = new LinkedHashMap<>();
+        Map<byte[], Expiration> toCacheTtl = new LinkedHashMap<>();
+        if (loaded != null) {
+            for (R r : loaded) {
+                String idKey = String.valueOf(idGetter.apply(r));
+                List<Integer> indexes = missIndexes.remove(idKey);
+                if (indexes == null) {
+                    continue;
+                }
+                for (Integer i : indexes) {
+                    result.set(i, r);
+                }
+                String key = keyPrefix + idKey;
+                putLocal(key, r);
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                toCache.put(rawKey, encode(r, null, null));
+                toCacheTtl.put(rawKey, Expiration.seconds(ttlSeconds(key, time, unit)));
+            }
+        }
+        // 剩下的是数据库中也不存在的id，写入空值
+        Map<byte[], byte[]> nullMarkers = new LinkedHashMap<>();
+        for (String idKey : missIndexes.keySet()) {
+            nullMarkers.put((keyPrefix + idKey).getBytes(StandardCharsets.UTF_8), new byte[0]);
+        }
+        // 一个pipeline回写
+        Expiration nullTtl = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            toCache.forEach((k, v) -> connection.stringCommands().set(k, v, toCacheTtl.get(k), RedisStringCommands.SetOption.upsert()));
+            nullMarkers.forEach((k, v) -> connection.stringCommands().set(k, v, nullTtl, RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * 依次查询 一级缓存 -> 布隆过滤器 -> redis，都未命中时通过 singleFlight 调用loader回源
+     * */
+    private <R,ID>R queryCached(String keyPrefix, ID id, Class<R> type, Function<String,R> loader) {
         String key=keyPrefix + id;
+        recordAccess(key);
+        // 查询一级缓存
+        if(localCache!=null){
+            Object cached = localCache.getIfPresent(key);
+            if(type.isInstance(cached)){
+                return type.cast(cached);
+            }
+        }
+        // 布隆过滤器判定一定不存在，直接返回
+        IdBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if(bloomFilter!=null && !bloomFilter.mightContain(id)){
+            bloomRejected.increment();
+            return null;
+        }
         // 查询redis缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         //存在且有商铺数据
-        if(StrUtil.isNotBlank(json)){
+        if(raw!=null && raw.length>0){
             //存在且有商铺数据才为true
-            return JSONUtil.toBean(json,type);
+            redisHit.increment();
+            R r = decode(raw,type);
+            putLocal(key,r);
+            return r;
         }
         // TODO 考虑空值的的情况
-        if(json!=null){
+        if(raw!=null){
+            redisNullHit.increment();
             return null;
         }
         //缓存 不存在
-        R r = dbFallback.apply(id);
-        //数据库中不存在
+        redisMiss.increment();
+        return singleFlight(key, () -> loader.apply(key));
+    }
+
+    /** 回源结果写入缓存：数据库中不存在则写入空值，存在则写入redis和一级缓存 */
+    private void cacheLoaded(String key, Object r, Long time, TimeUnit unit) {
         if(r == null){
             //TODO 将空值写入redis
             stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
-            return null;
+            return;
         }
-        //数据库中存在 重建缓存
         this.set(key,r,time,unit);
-        return r;
+        putLocal(key,r);
+    }
+
+    /** 正在回源的key -> 回源结果 */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 同一个key同时只有一个线程执行loader，其余线程等待同一个future完成后直接拿结果，不轮询也不重复回源
+     * */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
     }
+
     /**
      * 调用时需要指定：
      * 缓存前缀+id+返回对象类型+数据库查询函数+缓存时间+缓存互斥锁前缀
      * */
     public <R,ID>R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit, String lockPreFix) {
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, lockPreFix, 0);
+    }
+
+    /**
+     * 带提前刷新的逻辑过期查询，beta<=0 时等同于不提前刷新
+     * 未过期时按 now - 上次重建耗时*beta*ln(random) >= expireTime 判断是否提前在后台重建(XFetch)：
+     * 越接近过期、上次重建越慢，提前刷新的概率越大，热点key通常在过期前就已被某个请求刷新，锁很少发生竞争
+     * beta一般取1，大于1更积极
+     * */
+    public <R,ID>R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit, String lockPreFix, double beta) {
         String key=keyPrefix + id;
+        recordAccess(key);
         // 查询redis缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 未缓存命中
-        if(StrUtil.isBlank(json)){
+        if(raw==null || raw.length==0){
             return null;
         }
         // TODO 命中 反序列化
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        RedisData redisData = codecOf(raw).decodeWithExpire(raw, type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        //  5. 判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            // 5.1 未过期 返回店铺信息
-            return r;
+        //  5. 判断是否过期 没有逻辑过期时间(不是逻辑过期格式写入的)按已过期处理
+        if(expireTime!=null && expireTime.isAfter(LocalDateTime.now())){
+            // 5.1 未过期 且不需要提前刷新 返回店铺信息
+            if(!shouldRefreshEarly(expireTime, redisData.getRebuildMillis(), beta)){
+                return r;
+            }
+            earlyRefresh.increment();
+        } else {
+            expiredRebuild.increment();
         }
-        // 5.2 已过期 缓存重建
+        // 5.2 已过期(或提前刷新) 缓存重建
         String lockKey=lockPreFix+id;
-        // 6 尝试缓存重建
-        //6.1 获取互斥锁
-        boolean isLock=tryLock(lockKey);
-        //6.2 获取锁成功
-        if(isLock){
-            // 6.3  TODO 成功，开启独立线程，进行缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    R r1=dbFallback.apply(id);
-                    this.setWithLogicalExpire(key,r1,time,unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    unlock(lockKey);
+        // 6 提交重建任务，本节点同一个key只提交一次，互斥锁在重建线程中获取，不占用请求线程
+        rebuildExecutor.submit(key, ()->{
+            //6.1 获取互斥锁 失败说明其他节点正在重建
+            String token = redisLock.tryLock(lockKey, REBUILD_LOCK_LEASE_SECONDS);
+            if(token==null){
+                return;
+            }
+            // 6.2 成功，进行缓存重建
+            try {
+                long start=System.currentTimeMillis();
+                R r1=dbFallback.apply(id);
+                if(r1==null){
+                    // 数据已不存在 写入空值(与 queryWithPassThrough 相同)，过期后不再重建
+                    stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
+                    return;
                 }
-            });
-        }
-        // 7. 不管是否成功获得锁，都返回过期缓存
+                this.setWithLogicalExpire(key,r1,time,unit,System.currentTimeMillis()-start);
+            }finally {
+                redisLock.unlock(lockKey, token);
+            }
+        });
+        // 7. 不管是否重建，都返回过期缓存
         return r;
     }
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR= Executors.newFixedThreadPool(10);
 
-    private boolean tryLock(String key){
-        Boolean flag= stringRedisTemplate.opsForValue().setIfAbsent(key,"1",10,TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /** 旧数据中没有重建耗时时使用的默认值 */
+    private static final long DEFAULT_REBUILD_MILLIS = 100;
+    private final LongAdder earlyRefresh = new LongAdder();
+    private final LongAdder expiredRebuild = new LongAdder();
+
+    private boolean shouldRefreshEarly(LocalDateTime expireTime, Long rebuildMillis, double beta) {
+        if(beta<=0){
+            return false;
+        }
+        long delta = rebuildMillis == null ? DEFAULT_REBUILD_MILLIS : rebuildMillis;
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        // 1-nextDouble() 取值(0,1]，ln为负数，gap>=0
+        double gap = -delta * beta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
     }
 
-    private void unlock(String key){
+    /**
+     * 删除缓存：删除redis中的key，并通知所有节点(包括本节点)清除一级缓存
+     * */
+    public void delete(String key) {
         stringRedisTemplate.delete(key);
+        if(localCache!=null){
+            localCache.invalidate(key);
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL,key);
+        }
+    }
+
+    /**
+     * 在事务中修改数据后调用：事务提交后再删除缓存并广播一级缓存失效，不在事务中时立即删除
+     * 提交前删除时，其他请求可能在提交前回源读到旧数据并重新写入缓存
+     * */
+    public void deleteAfterCommit(String key) {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()){
+            delete(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                delete(key);
+            }
+        });
+    }
+
+    /**
+     * 注册(或替换为重建好的)某个缓存前缀的布隆过滤器
+     * */
+    public void putBloomFilter(String keyPrefix, IdBloomFilter filter) {
+        bloomFilters.put(keyPrefix, filter);
+    }
+
+    /**
+     * 开始全量构建：在扫描数据库之前调用，之后本节点新增和其他节点广播的id同时写入正在构建的过滤器，
+     * 扫描期间新增的数据无论id大小都不会遗漏
+     * */
+    public void beginBloomFilterRebuild(String keyPrefix, IdBloomFilter filter) {
+        buildingBloomFilters.put(keyPrefix, filter);
+    }
+
+    /** 结束全量构建(已替换上线或构建失败) */
+    public void endBloomFilterRebuild(String keyPrefix, IdBloomFilter filter) {
+        buildingBloomFilters.remove(keyPrefix, filter);
+    }
+
+    /**
+     * 新增数据后调用：本节点立即加入布隆过滤器，并广播给其他节点
+     * */
+    public <ID> void addToBloomFilter(String keyPrefix, ID id) {
+        if(!putToBloomFilters(keyPrefix, id)){
+            return;
+        }
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL, keyPrefix + BLOOM_MESSAGE_SEPARATOR + id);
+    }
+
+    /**
+     * 写入正在使用和正在构建的过滤器
+     * 先读正在构建的：替换上线(先put再end)与写入并发时，至少有一次写入落在新过滤器上
+     * @return 该前缀没有任何过滤器时返回false
+     * */
+    private boolean putToBloomFilters(String keyPrefix, Object id) {
+        IdBloomFilter building = buildingBloomFilters.get(keyPrefix);
+        IdBloomFilter filter = bloomFilters.get(keyPrefix);
+        if(building!=null){
+            building.put(id);
+        }
+        if(filter!=null){
+            filter.put(id);
+        }
+        return building!=null || filter!=null;
+    }
+
+    /**
+     * 各级缓存的命中统计
+     * l1: 一级缓存命中/未命中/淘汰次数      l2: redis命中/空值命中/未命中(回源数据库)次数/合并到同一次回源的请求数
+     * logicalExpire: 逻辑过期查询触发的提前刷新/过期后重建次数
+     * rebuild: 重建线程池的队列长度、去重/拒绝/失败次数、重建耗时
+     * ttl: 各前缀实际写入的TTL分布
+     * bloom: 布隆过滤器拦截次数及各过滤器的内存占用、误判率
+     * */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if(localCache!=null){
+            CacheStats l1 = localCache.stats();
+            Map<String, Object> l1Stats = new LinkedHashMap<>();
+            l1Stats.put("size", localCache.estimatedSize());
+            l1Stats.put("hit", l1.hitCount());
+            l1Stats.put("miss", l1.missCount());
+            l1Stats.put("hitRate", l1.hitRate());
+            l1Stats.put("eviction", l1.evictionCount());
+            stats.put("l1", l1Stats);
+        }
+        Map<String, Object> l2Stats = new LinkedHashMap<>();
+        l2Stats.put("hit", redisHit.sum());
+        l2Stats.put("nullHit", redisNullHit.sum());
+        l2Stats.put("miss", redisMiss.sum());
+        l2Stats.put("coalesced", coalesced.sum());
+        stats.put("l2", l2Stats);
+        Map<String, Object> logicalExpireStats = new LinkedHashMap<>();
+        logicalExpireStats.put("earlyRefresh", earlyRefresh.sum());
+        logicalExpireStats.put("expiredRebuild", expiredRebuild.sum());
+        stats.put("logicalExpire", logicalExpireStats);
+        stats.put("rebuild", rebuildExecutor.stats());
+        Map<String, Object> ttlStats = new LinkedHashMap<>();
+        ttlPolicies.forEach((prefix, policy) -> ttlStats.put(prefix, policy.stats()));
+        stats.put("ttl", ttlStats);
+        Map<String, Object> bloomStats = new LinkedHashMap<>();
+        bloomStats.put("rejected", bloomRejected.sum());
+        bloomFilters.forEach((prefix, filter) -> {
+            Map<String, Object> filterStats = new LinkedHashMap<>();
+            filterStats.put("insertions", filter.getInsertions());
+            filterStats.put("hashFunctions", filter.getNumHashFunctions());
+            filterStats.put("memoryBytes", filter.getMemoryBytes());
+            filterStats.put("fpp", filter.getFpp());
+            filterStats.put("expectedFpp", filter.expectedFpp());
+            bloomStats.put(prefix, filterStats);
+        });
+        stats.put("bloom", bloomStats);
+        return stats;
+    }
+
+    private void putLocal(String key, Object value) {
+        if(localCache!=null){
+            localCache.put(key,value);
+        }
     }
 
 }
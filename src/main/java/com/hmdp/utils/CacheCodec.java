@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值编解码SPI，CacheClient 写入时使用 hmdp.cache.codec 指定的实现，
+ * 读取时按数据首字节识别格式，新旧格式可以同时存在(滚动发布期间不同节点写入的格式不同)
+ */
+public interface CacheCodec {
+
+    /** 编解码器名称，对应配置 hmdp.cache.codec */
+    String name();
+
+    /** 是否能编码该类型，不支持时回退为JSON */
+    boolean supports(Class<?> type);
+
+    /** 是否是本编解码器写入的数据 */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 编码
+     * @param expireTime 逻辑过期时间，为null表示普通缓存
+     * @param rebuildMillis 上次重建耗时，可为null
+     */
+    byte[] encode(Object value, LocalDateTime expireTime, Long rebuildMillis);
+
+    /** 解码普通缓存 */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /** 解码逻辑过期缓存，返回的 RedisData.data 为 type 类型 */
+    <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全局共享的缓存重建线程池
+ * 有界队列，队列满时直接拒绝(调用方继续返回旧数据)；同一个key已有重建任务在排队或执行时不重复提交
+ * 任务异常只记录日志和失败次数；应用关闭时等待已提交的任务执行完
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+    private final ThreadPoolExecutor executor;
+    private final long shutdownTimeoutSeconds;
+    /** 正在排队或执行的key */
+    private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    public CacheRebuildExecutor(CacheProperties cacheProperties) {
+        CacheProperties.Rebuild rebuild = cacheProperties.getRebuild();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(rebuild.getPoolSize(), rebuild.getPoolSize(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(rebuild.getQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.shutdownTimeoutSeconds = rebuild.getShutdownTimeoutSeconds();
+    }
+
+    /**
+     * 提交重建任务
+     * @return false表示该key已有任务在处理，或队列已满被拒绝
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!inFlightKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlightKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，放弃重建：{}", key);
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败：{}", key, e);
+        } finally {
+            long cost = System.nanoTime() - start;
+            totalNanos.add(cost);
+            maxNanos.accumulate(cost);
+            inFlightKeys.remove(key);
+        }
+    }
+
+    /** 队列长度、执行中数量、提交/去重/拒绝/失败次数、重建耗时 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = completed.sum() + failed.sum();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        stats.put("completed", completed.sum());
+        stats.put("avgMillis", done == 0 ? 0 : totalNanos.sum() / done / 1_000_000.0);
+        stats.put("maxMillis", maxNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+            log.warn("缓存重建线程池未能在{}秒内完成，剩余任务：{}", shutdownTimeoutSeconds, executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+}
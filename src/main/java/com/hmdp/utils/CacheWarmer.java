@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热热门店铺(按销量、评分)的缓存
+ * 与 queryWithPassThrough/queryBatch 读取的格式相同，TTL为 CACHE_SHOP_TTL 并按 cache:shop: 的TTL策略抖动，
+ * 预热的key不会在同一时刻过期
+ * 分批从数据库读取，每批用一个pipeline写入redis，同时写入的批次数受 parallelism 限制
+ * 作为 ApplicationRunner 同步执行，预热完成之前应用不会发布 ReadinessState.ACCEPTING_TRAFFIC，
+ * 就绪探针(/actuator/health/readiness)不通过，负载均衡不会把流量转发到冷节点
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheProperties cacheProperties;
+    @Resource
+    private IShopService shopService;
+
+    /** 各类数据已写入的数量 */
+    private final Map<String, AtomicLong> progress = new LinkedHashMap<>();
+    private volatile boolean finished;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        CacheProperties.Warmup warmup = cacheProperties.getWarmup();
+        if (!warmup.isEnabled()) {
+            finished = true;
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(warmup.getParallelism());
+        Semaphore permits = new Semaphore(warmup.getParallelism());
+        try {
+            warmShops(warmup, executor, permits);
+            // 等待所有批次写完
+            permits.acquire(warmup.getParallelism());
+            permits.release(warmup.getParallelism());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        finished = true;
+        log.info("缓存预热完成，{}，耗时：{}ms", progress, System.currentTimeMillis() - start);
+    }
+
+    private void warmShops(CacheProperties.Warmup warmup, ExecutorService executor, Semaphore permits) throws InterruptedException {
+        int batchSize = warmup.getBatchSize();
+        int pages = (warmup.getShopLimit() + batchSize - 1) / batchSize;
+        for (int current = 1; current <= pages; current++) {
+            // 不查询总数，只取当前页
+            List<Shop> shops = shopService.query()
+                    .orderByDesc("sold").orderByDesc("score")
+                    .page(new Page<>(current, batchSize, false))
+                    .getRecords();
+            if (shops.isEmpty()) {
+                break;
+            }
+            submit("shop", shops, executor, permits);
+            if (shops.size() < batchSize) {
+                break;
+            }
+        }
+    }
+
+    /** 占用一个并发名额后异步写入一批，名额用完时阻塞读取下一批，避免数据堆积在内存中 */
+    private void submit(String name, List<Shop> batch, ExecutorService executor, Semaphore permits) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        AtomicLong written;
+        synchronized (progress) {
+            written = progress.computeIfAbsent(name, k -> new AtomicLong());
+        }
+        Map<String, Shop> entries = new LinkedHashMap<>(batch.size());
+        for (Shop shop : batch) {
+            entries.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        permits.acquire();
+        executor.execute(() -> {
+            try {
+                cacheClient.setBatch(entries, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                log.debug("缓存预热 {}：已写入 {} 条", name, written.addAndGet(entries.size()));
+            } catch (Exception e) {
+                log.error("缓存预热 {} 写入失败", name, e);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /** 预热是否完成，以及各类数据已写入的数量 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("finished", finished);
+        synchronized (progress) {
+            progress.forEach((name, written) -> stats.put(name, written.get()));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 锁竞争统计
+ *      acquired：成功获取次数     contended：第一次尝试失败、需要等待的次数
+ *      timeouts：等待超时次数     waitMicros：需要等待时的平均/最大等待时间
+ */
+public class ContentionStats {
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    /** 第一次尝试就获取成功 */
+    public void uncontended() {
+        acquired.increment();
+    }
+
+    /**
+     * 等待之后获取成功或超时
+     * @param startNanos 开始等待的 System.nanoTime()
+     */
+    public void contended(long startNanos, boolean success) {
+        long waited = System.nanoTime() - startNanos;
+        contended.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+        if (success) {
+            acquired.increment();
+        } else {
+            timeouts.increment();
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long contendedCount = contended.sum();
+        stats.put("acquired", acquired.sum());
+        stats.put("contended", contendedCount);
+        stats.put("timeouts", timeouts.sum());
+        stats.put("avgWaitMicros", contendedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.sum() / contendedCount));
+        stats.put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        return stats;
+    }
+}
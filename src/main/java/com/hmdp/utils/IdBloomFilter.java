@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的id布隆过滤器，用于在查询redis/数据库之前拦截一定不存在的id(缓存穿透)
+ * 位数组大小与哈希函数个数由 预计元素数量 + 期望误判率 计算得出：
+ *      m = -n*ln(p)/(ln2)^2        k = m/n*ln2
+ * 线程安全：置位使用CAS，不加锁
+ */
+public class IdBloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int numHashFunctions;
+    private final double fpp;
+    private final LongAdder insertions = new LongAdder();
+
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0) {
+            expectedInsertions = 1;
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp必须在(0,1)之间: " + fpp);
+        }
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (m + 63) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words << 6;
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.fpp = fpp;
+    }
+
+    public void put(Object id) {
+        long hash1 = hash(id);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            setBit(index);
+        }
+        insertions.increment();
+    }
+
+    /** false表示id一定不存在；true表示可能存在 */
+    public boolean mightContain(Object id) {
+        long hash1 = hash(id);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+    }
+
+    /** 按当前已插入数量估算的实际误判率 (1-e^(-kn/m))^k */
+    public double expectedFpp() {
+        double n = insertions.sum();
+        return Math.pow(1 - Math.exp(-numHashFunctions * n / bitSize), numHashFunctions);
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public long getMemoryBytes() {
+        return bitSize >>> 3;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    /** 对id的字符串形式做FNV-1a哈希，保证Long/String等不同类型的同一个id结果一致 */
+    private static long hash(Object id) {
+        byte[] bytes = String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** splitmix64 的混淆步骤，打散低位 */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
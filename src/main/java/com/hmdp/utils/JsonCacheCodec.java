@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON编解码(原有格式)：普通缓存直接存对象JSON，逻辑过期缓存存 RedisData 的JSON
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] != BinaryCacheCodec.MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expireTime, Long rebuildMillis) {
+        if (expireTime == null) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildMillis(rebuildMillis);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        // 只解析一次字符串，data 直接从解析出的JSONObject转换，不再先转为RedisData再转一次
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(json.get("expireTime", LocalDateTime.class));
+        redisData.setRebuildMillis(json.getLong("rebuildMillis"));
+        JSONObject data = json.getJSONObject("data");
+        redisData.setData(data == null ? null : data.toBean(type));
+        return redisData;
+    }
+}
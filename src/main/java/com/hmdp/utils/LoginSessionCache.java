@@ -0,0 +1,212 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_SESSION_EVICT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录状态的进程内缓存，每个请求不再固定 HGETALL + EXPIRE 两次访问redis
+ *      读取：先查本地缓存；未命中时一个pipeline中 HGETALL + PTTL，同时记下redis中的过期时间
+ *      hash与UserDTO的转换使用 UserDTOHashMapping，直接读写字节数组
+ *      续期：本地记录的剩余有效期低于 refreshBelowMinutes 才发送 EXPIRE，同一会话只有一个线程发送；
+ *           key已不存在(过期或在其他节点注销)时清除本地缓存，本次请求按未登录处理
+ *      注销：删除redis中的登录状态并发布token，所有节点清除本地缓存；消息丢失时最多 expireSeconds 内仍可访问
+ * 其他节点的续期不会同步到本地，本地记录的过期时间只会早于redis，最多多发送一次 EXPIRE
+ */
+@Component
+public class LoginSessionCache {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SessionProperties sessionProperties;
+    private final Cache<String, Session> nearCache;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder expireSent = new LongAdder();
+    private final LongAdder expireSkipped = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+    /** 实际发送的命令数和网络往返次数 */
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    /** 原实现需要的命令数：找到登录状态时 HGETALL + EXPIRE，否则只有 HGETALL，每条命令一次往返 */
+    private final LongAdder baselineCommands = new LongAdder();
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate, SessionProperties sessionProperties,
+                             RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sessionProperties = sessionProperties;
+        SessionProperties.NearCache config = sessionProperties.getNearCache();
+        if (config.isEnabled()) {
+            this.nearCache = Caffeine.newBuilder()
+                    .maximumSize(config.getMaximumSize())
+                    .expireAfterWrite(config.getExpireSeconds(), TimeUnit.SECONDS)
+                    .build();
+            // 订阅注销消息，消息体为token
+            listenerContainer.addMessageListener((message, pattern) ->
+                            nearCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(LOGIN_SESSION_EVICT_CHANNEL));
+        } else {
+            this.nearCache = null;
+        }
+    }
+
+    /**
+     * 根据token查询登录用户，必要时续期
+     * @return 未登录或已过期时返回null
+     */
+    public UserDTO get(String token) {
+        requests.increment();
+        long now = System.currentTimeMillis();
+        Session session = nearCache == null ? null : nearCache.getIfPresent(token);
+        if (session != null && session.expireAt.get() > now) {
+            nearHits.increment();
+        } else {
+            session = load(token, now);
+            if (session == null) {
+                baselineCommands.increment();
+                return null;
+            }
+            if (nearCache != null) {
+                nearCache.put(token, session);
+            }
+        }
+        baselineCommands.add(2);
+        return refreshIfNeeded(token, session, now) ? session.user : null;
+    }
+
+    /** 保存登录状态，同时放入本地缓存 */
+    public void save(String token, UserDTO user) {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, token);
+        Map<byte[], byte[]> hash = hashMapping().toHash(user);
+        long ttlSeconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMSet(key, hash);
+            connection.keyCommands().expire(key, ttlSeconds);
+            return null;
+        });
+        if (nearCache != null) {
+            nearCache.put(token, new Session(key, user, now + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+        }
+    }
+
+    private UserDTOHashMapping hashMapping() {
+        return sessionProperties.isCompactHash() ? UserDTOHashMapping.COMPACT : UserDTOHashMapping.FULL;
+    }
+
+    /** 一次往返读取登录状态和剩余有效期，不经过序列化器，结果保持为字节数组 */
+    @SuppressWarnings("unchecked")
+    private Session load(String token, long now) {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, token);
+        List<Object> results = stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            connection.hashCommands().hGetAll(key);
+            connection.keyCommands().pTtl(key);
+            return connection.closePipeline();
+        });
+        loads.increment();
+        commands.add(2);
+        roundTrips.increment();
+        UserDTO user = results == null ? null : hashMapping().fromHash((Map<byte[], byte[]>) results.get(0));
+        Long pttl = results == null ? null : (Long) results.get(1);
+        // -2：两条命令之间key被删除
+        if (user == null || pttl == null || pttl == -2) {
+            notFound.increment();
+            return null;
+        }
+        // -1：没有设置过期时间，下面立即续期补上
+        return new Session(key, user, pttl < 0 ? now : now + pttl);
+    }
+
+    /** @return false 表示key已不存在 */
+    private boolean refreshIfNeeded(String token, Session session, long now) {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        long threshold = Math.min(TimeUnit.MINUTES.toMillis(sessionProperties.getRefreshBelowMinutes()), ttlMillis);
+        long expireAt = session.expireAt.get();
+        if (expireAt - now >= threshold || !session.expireAt.compareAndSet(expireAt, now + ttlMillis)) {
+            expireSkipped.increment();
+            return true;
+        }
+        Boolean exists = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.keyCommands().expire(session.key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL)));
+        expireSent.increment();
+        commands.increment();
+        roundTrips.increment();
+        if (Boolean.FALSE.equals(exists)) {
+            invalidateLocal(token);
+            return false;
+        }
+        return true;
+    }
+
+    /** 注销：删除登录状态，通知所有节点清除本地缓存 */
+    public void revoke(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        invalidateLocal(token);
+        stringRedisTemplate.convertAndSend(LOGIN_SESSION_EVICT_CHANNEL, token);
+        revoked.increment();
+    }
+
+    private void invalidateLocal(String token) {
+        if (nearCache != null) {
+            nearCache.invalidate(token);
+        }
+    }
+
+    /** 本地命中率、续期次数，与每个请求 HGETALL + EXPIRE 相比节省的命令数和往返次数 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = requests.sum();
+        long hits = nearHits.sum();
+        long baseline = baselineCommands.sum();
+        stats.put("nearCacheEnabled", nearCache != null);
+        stats.put("nearCacheSize", nearCache == null ? 0 : nearCache.estimatedSize());
+        stats.put("requests", total);
+        stats.put("nearHits", hits);
+        stats.put("nearHitRate", total == 0 ? 0 : (double) hits / total);
+        stats.put("loads", loads.sum());
+        stats.put("notFound", notFound.sum());
+        stats.put("expireSent", expireSent.sum());
+        stats.put("expireSkipped", expireSkipped.sum());
+        stats.put("revoked", revoked.sum());
+        stats.put("baselineCommands", baseline);
+        stats.put("commands", commands.sum());
+        stats.put("commandsSaved", baseline - commands.sum());
+        stats.put("roundTrips", roundTrips.sum());
+        stats.put("roundTripsSaved", baseline - roundTrips.sum());
+        return stats;
+    }
+
+    /** 登录用户和本地估计的redis过期时间 */
+    private static final class Session {
+        private final byte[] key;
+        private final UserDTO user;
+        private final AtomicLong expireAt;
+
+        private Session(byte[] key, UserDTO user, long expireAt) {
+            this.key = key;
+            this.user = user;
+            this.expireAt = new AtomicLong(expireAt);
+        }
+    }
+}
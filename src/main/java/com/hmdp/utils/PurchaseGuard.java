@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+
+/**
+ * 一人一单购买锁：同一个用户的下单请求串行执行，避免并发请求同时通过"是否已下单"的判断
+ * 获取锁的等待时间有上限，超时返回null，调用方直接返回失败，不会无限堆积线程
+ * 实现通过 hmdp.seckill.guard.type 选择
+ */
+public interface PurchaseGuard {
+
+    /** 实现名称，对应配置 hmdp.seckill.guard.type */
+    String name();
+
+    /**
+     * 获取用户的购买锁
+     * @param waitMillis 最多等待的时间
+     * @return 持有的锁，用完后关闭；等待超时返回null
+     */
+    Permit tryAcquire(Long userId, long waitMillis);
+
+    /** 获取次数、竞争次数、超时次数、等待时间 */
+    Map<String, Object> stats();
+
+    /** 持有的锁，close时释放 */
+    interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
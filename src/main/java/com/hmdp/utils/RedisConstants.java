@@ -5,18 +5,53 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final String LOGIN_SESSION_EVICT_CHANNEL = "login:session:evict";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKED_CHANNEL = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_RELEASE_CHANNEL = "lock:released";
+    public static final String LOCK_ORDER_KEY = "lock:order:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DEAD_KEY = "stream.orders.dead";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_STATE_CHANNEL = "seckill:state";
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments";
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher:changed";
+    public static final String ORDER_TIMEOUT_KEY = "order:timeout";
+    public static final String ORDER_TIMEOUT_LEASE_KEY = "order:timeout:lease";
+    public static final String ID_WORKER_KEY = "id:worker:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    /**
+     * 秒杀券的key：前缀 + {优惠券id}，优惠券id作为hash tag
+     * 不分段的秒杀券的库存、时间窗口、下单用户集合在redis集群中位于同一个slot，可以在同一个脚本中访问
+     */
+    public static String seckillKey(String prefix, Long voucherId) {
+        return prefix + "{" + voucherId + "}";
+    }
+
+    /**
+     * 分段库存的key：前缀 + {优惠券id:分段}，每个分段一个hash tag
+     * 同一个分段的库存和下单用户集合位于同一个slot，不同分段分布在不同的slot(实例)上
+     */
+    public static String seckillSegmentKey(String prefix, Long voucherId, int index) {
+        return prefix + "{" + voucherId + ":" + index + "}";
+    }
 }
@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 以redis hash保存的对象与hash字段之间的转换，每个类型一个手写实现，字段名和编码方式预先确定，不使用反射
+ * 直接读写字节数组，不经过 Map<String, Object> 和 RedisSerializer，配合 RedisConnection 的 byte[] 命令使用
+ */
+public interface RedisHashMapping<T> {
+
+    /** 转为hash字段，值为null的字段不写入 */
+    Map<byte[], byte[]> toHash(T value);
+
+    /** 从 HGETALL 的结果构造对象，不认识的字段忽略，hash为空时返回null */
+    T fromHash(Map<byte[], byte[]> hash);
+
+    /** 前缀 + 后缀直接编码为key，不拼接中间字符串；含非ASCII字符时按UTF-8编码 */
+    static byte[] key(String prefix, String suffix) {
+        int prefixLength = prefix.length();
+        byte[] key = new byte[prefixLength + suffix.length()];
+        for (int i = 0; i < key.length; i++) {
+            char c = i < prefixLength ? prefix.charAt(i) : suffix.charAt(i - prefixLength);
+            if (c >= 0x80) {
+                return (prefix + suffix).getBytes(StandardCharsets.UTF_8);
+            }
+            key[i] = (byte) c;
+        }
+        return key;
+    }
+}
@@ -1,39 +1,248 @@
 package com.hmdp.utils;
 
-import org.springframework.data.redis.core.RedisTemplate;
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 全局id：31位时间戳(秒，从2022-01-01起) + 32位序列号，序列号来自redis中每天一个的计数key icr:前缀:yyyy:MM:dd
+ *      incr模式：每个id一次 INCR
+ *      segment模式：INCRBY 一次租用 step 个序列号，本地用原子计数分配，不加锁；
+ *                  剩余不足 prefetchRatio 时由后台线程预取下一段，用完时直接切换，预热后生成id不访问redis
+ * 号段只在租用当天使用，跨天时丢弃剩余的序列号，保证 时间戳+序列号 不重复
+ * 配置为 snowflake 的前缀交给 SnowflakeIdWorker 本地生成
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP=1640995200L;
     private static final int COUNT_BITS=32;
+    private static final long MAX_COUNT = (1L << COUNT_BITS) - 1;
+    private static final long SECONDS_PER_DAY = 86400;
+    private static final long SECONDS_PER_HOUR = 3600;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdProperties idProperties;
+    private final SnowflakeIdWorker snowflakeIdWorker;
+    /** 前缀 -> 号段缓冲 */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** 本地时区偏移，按小时缓存(夏令时只在整点切换) */
+    private volatile long offsetHour = Long.MIN_VALUE;
+    private volatile long offsetSeconds;
 
-    private StringRedisTemplate stringRedisTemplate;
     //利用构造函数注入
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties, SnowflakeIdWorker snowflakeIdWorker) {
         this.stringRedisTemplate=stringRedisTemplate;
-    };
+        this.idProperties=idProperties;
+        this.snowflakeIdWorker=snowflakeIdWorker;
+    }
+
     public long nextId(String keyPrefix) {
-        //生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond=now.toEpochSecond(ZoneOffset.UTC);
+        String mode = idProperties.getPrefixModes().getOrDefault(keyPrefix, idProperties.getMode());
+        if ("snowflake".equals(mode)) {
+            return snowflakeIdWorker.nextId();
+        }
+        //生成时间戳：本地时间的秒数，与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 相同
+        long nowSecond = localSecond();
         long timestamp=nowSecond-BEGIN_TIMESTAMP;
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
         //生成序列号
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = "incr".equals(mode)
+                ? stringRedisTemplate.opsForValue().increment(buffer.key(day))
+                : buffer.next(day);
         //拼接并返回
         return timestamp << COUNT_BITS | count;
     }
 
+    private long localSecond() {
+        long epochSecond = System.currentTimeMillis() / 1000;
+        long hour = epochSecond / SECONDS_PER_HOUR;
+        if (hour != offsetHour) {
+            offsetSeconds = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+            offsetHour = hour;
+        }
+        return epochSecond + offsetSeconds;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /** 各前缀号段的租用次数和预取命中率 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", idProperties.getMode());
+        stats.put("prefixModes", idProperties.getPrefixModes());
+        buffers.forEach((prefix, buffer) -> stats.put(prefix, buffer.stats()));
+        if (idProperties.getPrefixModes().containsValue("snowflake") || "snowflake".equals(idProperties.getMode())) {
+            stats.put("snowflake", snowflakeIdWorker.stats());
+        }
+        return stats;
+    }
+
+    /** 某一天的计数key，整体替换 */
+    private static final class DayKey {
+        private final long day;
+        private final String key;
+
+        private DayKey(long day, String key) {
+            this.day = day;
+            this.key = key;
+        }
+    }
+
+    /** 一段已租用的序列号 [start, end]，只在 day 当天使用 */
+    private static final class Segment {
+        private final long day;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(long day, long start, long end, long prefetchAt) {
+            this.day = day;
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private final class SegmentBuffer {
+        private final String prefix;
+        private volatile DayKey dayKey = new DayKey(Long.MIN_VALUE, null);
+        private final AtomicReference<Segment> current = new AtomicReference<>();
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+        private volatile CompletableFuture<Segment> next;
+
+        private final LongAdder leased = new LongAdder();
+        private final LongAdder prefetchHits = new LongAdder();
+        private final LongAdder prefetchWaits = new LongAdder();
+        private final LongAdder syncLeases = new LongAdder();
+
+        private SegmentBuffer(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /** 当天的计数key，每天只拼接一次 */
+        private String key(long day) {
+            DayKey cached = dayKey;
+            if (cached.day != day) {
+                cached = new DayKey(day, "icr:" + prefix + ":" + LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+                dayKey = cached;
+            }
+            return cached.key;
+        }
+
+        private long next(long day) {
+            while (true) {
+                Segment segment = current.get();
+                if (segment != null && segment.day == day) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.end) {
+                        if (count == segment.prefetchAt) {
+                            prefetch(day);
+                        }
+                        return count;
+                    }
+                }
+                // 号段用完或跨天，只有一个线程切换，其他线程等待后重试
+                synchronized (this) {
+                    if (current.get() == segment) {
+                        current.set(take(day));
+                    }
+                }
+            }
+        }
+
+        /** 取预取好的下一段；没有预取或不是当天的，同步租用 */
+        private Segment take(long day) {
+            CompletableFuture<Segment> future = next;
+            next = null;
+            if (future != null) {
+                boolean done = future.isDone();
+                try {
+                    Segment segment = future.join();
+                    if (segment.day == day) {
+                        (done ? prefetchHits : prefetchWaits).increment();
+                        return segment;
+                    }
+                } catch (Exception e) {
+                    log.warn("预取id号段失败，前缀：{}", prefix, e);
+                }
+            }
+            syncLeases.increment();
+            return lease(day);
+        }
+
+        private void prefetch(long day) {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            next = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lease(day);
+                } finally {
+                    prefetching.set(false);
+                }
+            }, prefetchExecutor);
+        }
+
+        private Segment lease(long day) {
+            int step = idProperties.getSegment().getStep();
+            Long end = stringRedisTemplate.opsForValue().increment(key(day), step);
+            if (end == null || end > MAX_COUNT) {
+                throw new IllegalStateException("id序列号超出32位，前缀：" + prefix);
+            }
+            leased.increment();
+            long start = end - step + 1;
+            long remaining = Math.max(1, (long) (step * idProperties.getSegment().getPrefetchRatio()));
+            return new Segment(day, start, end, Math.max(start, end - remaining + 1));
+        }
+
+        private Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long hits = prefetchHits.sum();
+            long switches = hits + prefetchWaits.sum() + syncLeases.sum();
+            stats.put("leased", leased.sum());
+            stats.put("prefetchHits", hits);
+            stats.put("prefetchWaits", prefetchWaits.sum());
+            stats.put("syncLeases", syncLeases.sum());
+            stats.put("prefetchHitRate", switches == 0 ? 0 : (double) hits / switches);
+            Segment segment = current.get();
+            stats.put("remaining", segment == null ? 0 : Math.max(0, segment.end - segment.cursor.get() + 1));
+            return stats;
+        }
+    }
+
     public static void main(String[] args) {
         LocalDateTime time = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
         long second = time.toEpochSecond(ZoneOffset.UTC);
         System.out.println(second);
     }
 }
-;
\ No newline at end of file
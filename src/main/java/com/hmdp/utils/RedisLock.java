@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASE_CHANNEL;
+
+/**
+ * 基于redis的分布式锁
+ * tryLock：  SET NX 写入持有者标识(节点UUID+线程id+序号)，返回标识，获取失败返回null
+ * unlock：   lua脚本比较标识一致才删除，不会误删其他线程(节点)的锁；删除后在 LOCK_RELEASE_CHANNEL 广播
+ * 续期：      持有期间每 1/3 租期续期一次，重建耗时超过租期也不会被其他节点拿到锁
+ * awaitUnlock：等待释放通知，代替sleep轮询；同一个key的等待者共用一个future，
+ *             最后一个等待者超时或返回时删除，锁过期没有广播时也不会留在 waiters 中
+ */
+@Slf4j
+@Component
+public class RedisLock {
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    /** 本节点标识，区分不同JVM中id相同的线程 */
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ScheduledExecutorService renewScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** 持有者标识 -> 续期任务 */
+    private final Map<String, ScheduledFuture<?>> renewTasks = new ConcurrentHashMap<>();
+    /** 锁的key -> 等待释放的线程 */
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+
+    public RedisLock(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener((message, pattern) -> {
+            Waiter waiter = waiters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (waiter != null) {
+                waiter.released.complete(null);
+            }
+        }, new ChannelTopic(LOCK_RELEASE_CHANNEL));
+    }
+
+    /**
+     * 尝试获取锁
+     * @return 持有者标识，释放时需要传入；获取失败返回null
+     */
+    public String tryLock(String key, long leaseSeconds) {
+        String token = ID_PREFIX + Thread.currentThread().getId() + "-" + System.nanoTime();
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(key, token, leaseSeconds, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(success)) {
+            return null;
+        }
+        long leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        long period = Math.max(leaseMillis / 3, 1);
+        renewTasks.put(token, renewScheduler.scheduleAtFixedRate(() -> renew(key, token, leaseMillis),
+                period, period, TimeUnit.MILLISECONDS));
+        return token;
+    }
+
+    private void renew(String key, String token, long leaseMillis) {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                    token, String.valueOf(leaseMillis));
+            if (renewed == null || renewed == 0) {
+                // 锁已经不属于自己(过期或被删除)，停止续期
+                stopRenew(token);
+            }
+        } catch (Exception e) {
+            log.warn("锁续期失败：{}", key, e);
+        }
+    }
+
+    private void stopRenew(String token) {
+        ScheduledFuture<?> task = renewTasks.remove(token);
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /** 只有仍持有锁时才释放 */
+    public boolean unlock(String key, String token) {
+        stopRenew(token);
+        Long result = stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key),
+                token, LOCK_RELEASE_CHANNEL);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 等待锁被释放(或过期)
+     * @return true表示已释放，false表示超时
+     */
+    public boolean awaitUnlock(String key, long timeoutMillis) {
+        Waiter waiter = waiters.compute(key, (k, current) -> {
+            Waiter w = current == null ? new Waiter() : current;
+            w.waiting++;
+            return w;
+        });
+        try {
+            // 先注册再检查，避免在注册之前释放而错过通知
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+                return true;
+            }
+            waiter.released.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            // 已被释放通知移除时不再处理；否则最后一个离开的等待者删除
+            waiters.computeIfPresent(key, (k, current) -> current == waiter && --current.waiting == 0 ? null : current);
+        }
+    }
+
+    /** 正在等待释放的key数量 */
+    int waitingKeys() {
+        return waiters.size();
+    }
+
+    /** 同一个key的等待者，waiting 只在 waiters 的 compute 中修改 */
+    private static final class Waiter {
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private int waiting;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renewScheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_KEY;
+
+/**
+ * 基于 RedisLock 的一人一单购买锁，多节点部署时同一个用户的请求落在不同节点也能互斥
+ * 获取失败时等待锁的释放通知再重试，总等待时间不超过 waitMillis；持有期间自动续期
+ */
+@Component
+public class RedisPurchaseGuard implements PurchaseGuard {
+    public static final String NAME = "redis";
+
+    private final RedisLock redisLock;
+    private final SeckillProperties seckillProperties;
+    private final ContentionStats contention = new ContentionStats();
+
+    public RedisPurchaseGuard(RedisLock redisLock, SeckillProperties seckillProperties) {
+        this.redisLock = redisLock;
+        this.seckillProperties = seckillProperties;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Permit tryAcquire(Long userId, long waitMillis) {
+        String key = LOCK_ORDER_KEY + userId;
+        long leaseSeconds = seckillProperties.getGuard().getLeaseSeconds();
+        String token = redisLock.tryLock(key, leaseSeconds);
+        if (token != null) {
+            contention.uncontended();
+            return () -> redisLock.unlock(key, token);
+        }
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            redisLock.awaitUnlock(key, remaining);
+            String retried = redisLock.tryLock(key, leaseSeconds);
+            if (retried != null) {
+                contention.contended(start, true);
+                return () -> redisLock.unlock(key, retried);
+            }
+        }
+        contention.contended(start, false);
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        return contention.toMap();
+    }
+}
@@ -1,21 +1,19 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    private SignedTokens signedTokens;
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokens signedTokens) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokens = signedTokens;
     }
 
     @Override
@@ -25,16 +23,25 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if(StrUtil.isBlank(token)){
             return true;
         }
-        String key=RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-        if (userMap.isEmpty()){
+        if (signedTokens.accepts(token)) {
+            // 签名token只在本地校验，剩余有效期不足时在响应头中返回新token
+            SignedTokens.Claims claims = signedTokens.verify(token);
+            if (claims == null){
+                return true;
+            }
+            UserHolder.saveUser(claims.getUser());
+            String renewed = signedTokens.renewIfNeeded(claims);
+            if (renewed != null) {
+                response.setHeader("authorization", renewed);
+            }
+            return true;
+        }
+        // 优先从本地缓存获取，剩余有效期不足时才刷新token有效期
+        UserDTO userDTO = loginSessionCache.get(token);
+        if (userDTO == null){
             return true;
         }
-        //转为UserDTO类型
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         UserHolder.saveUser(userDTO);
-        //TODO 我们实现了登录状态使用软件 可以刷新token有效期
-        stringRedisTemplate.expire(key,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         return true;
     }
 
@@ -0,0 +1,281 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.seckillKey;
+
+/**
+ * 秒杀准入控制：本节点每个秒杀券一个令牌桶，拿不到令牌的请求直接返回"稍后重试"，不访问redis和数据库
+ * 令牌桶大小和速率定时按剩余库存和库存消耗速度调整：
+ *      桶容量 = 本节点分到的剩余库存(剩余库存 / nodes) * burstRatio，限制在 [minBurst, maxBurst]
+ *             开抢瞬间最多放行与库存相当的请求，多出来的请求即使放行也只会得到"库存不足"
+ *      速率   = 本节点库存消耗速度 * headroom，限制在 [minRate, maxRate]；还没有消耗时为 initialRate
+ *             放行的请求多于实际消耗时速率跟着消耗下降，反之每个周期最多提高 headroom 倍
+ * 本节点第一次遇到秒杀券时读取一次剩余库存，按同样的规则确定容量，速率不超过本节点分到的剩余库存，
+ * 桶内初始只有 min(容量, 本节点分到的剩余库存) 个令牌；读取失败时使用 initialRate 和 maxBurst
+ * 可以在运行时为某个秒杀券指定固定的速率和容量，不再自动调整
+ * 令牌桶用 GCRA 实现：只记录理论到达时间(TAT)，CAS 更新，不加锁
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillProperties seckillProperties;
+    private final SeckillStockSegments seckillStockSegments;
+    private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public SeckillAdmission(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                            SeckillStockSegments seckillStockSegments) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        this.seckillStockSegments = seckillStockSegments;
+    }
+
+    /** 尝试获取一个令牌，未开启准入控制时总是放行 */
+    public boolean tryAdmit(Long voucherId) {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        if (!config.isEnabled()) {
+            return true;
+        }
+        Bucket bucket = buckets.get(voucherId);
+        if (bucket == null) {
+            // 在computeIfAbsent之外读取库存，不在持有分段锁时访问redis
+            Bucket created = newBucket(voucherId, config);
+            bucket = buckets.putIfAbsent(voucherId, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket.tryAcquire();
+    }
+
+    /** 按剩余库存创建令牌桶 */
+    private Bucket newBucket(Long voucherId, SeckillProperties.Admission config) {
+        List<String> keys = stockKeys(voucherId);
+        long stock;
+        try {
+            stock = sumStock(stringRedisTemplate.opsForValue().multiGet(keys), 0, keys.size());
+        } catch (Exception e) {
+            log.warn("读取秒杀券{}的库存失败，令牌桶使用初始配置", voucherId, e);
+            stock = -1;
+        }
+        if (stock < 0) {
+            return new Bucket(config.getInitialRate(), config.getMaxBurst());
+        }
+        int nodes = Math.max(1, config.getNodes());
+        long share = (long) Math.ceil((double) stock / nodes);
+        double rate = Math.max(config.getMinRate(), Math.min(config.getInitialRate(), share));
+        Bucket bucket = new Bucket(rate, burstOf(stock, config));
+        bucket.fill(Math.min(bucket.burst, share));
+        bucket.lastStock = stock;
+        bucket.lastAdjustNanos = System.nanoTime();
+        return bucket;
+    }
+
+    /** 秒杀券的库存key，分段库存为所有分段 */
+    private List<String> stockKeys(Long voucherId) {
+        Integer segments = seckillStockSegments.segmentsOf(voucherId);
+        return segments == null ? Collections.singletonList(seckillKey(SECKILL_STOCK_KEY, voucherId))
+                : SeckillStockSegments.segmentKeys(voucherId, segments);
+    }
+
+    /** values[offset, offset+count)中库存之和，负数按0计，全部不存在返回-1 */
+    private static long sumStock(List<String> values, int offset, int count) {
+        long stock = -1;
+        for (int j = 0; values != null && j < count; j++) {
+            String value = values.get(offset + j);
+            if (value != null) {
+                stock = Math.max(stock, 0) + Math.max(0, Long.parseLong(value));
+            }
+        }
+        return stock;
+    }
+
+    /** 桶容量 = 本节点分到的剩余库存 * burstRatio，限制在 [minBurst, maxBurst] */
+    private static long burstOf(long stock, SeckillProperties.Admission config) {
+        long burst = (long) Math.ceil((double) stock / Math.max(1, config.getNodes()) * config.getBurstRatio());
+        return Math.max(config.getMinBurst(), Math.min(config.getMaxBurst(), burst));
+    }
+
+    /**
+     * 为秒杀券指定固定的速率和容量，不再自动调整
+     * @param rate 每秒令牌数
+     * @param burst 桶容量
+     */
+    public void override(Long voucherId, double rate, long burst) {
+        Bucket bucket = buckets.computeIfAbsent(voucherId, id -> new Bucket(rate, burst));
+        bucket.overridden = true;
+        bucket.resize(rate, burst);
+    }
+
+    /** 取消指定的速率和容量，恢复自动调整 */
+    public void clearOverride(Long voucherId) {
+        Bucket bucket = buckets.get(voucherId);
+        if (bucket != null) {
+            bucket.overridden = false;
+        }
+    }
+
+    /** 按剩余库存和消耗速度调整令牌桶，一次MGET读取所有秒杀券的库存 */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.admission.refresh-millis:1000}")
+    public void refresh() {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        if (!config.isEnabled() || buckets.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        // 长时间没有请求的秒杀券不再维护
+        buckets.entrySet().removeIf(e -> now - e.getValue().lastAccess > TimeUnit.MINUTES.toNanos(10));
+        List<Long> voucherIds = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Integer> keyCounts = new ArrayList<>();
+        buckets.forEach((voucherId, bucket) -> {
+            if (bucket.overridden) {
+                return;
+            }
+            List<String> voucherKeys = stockKeys(voucherId);
+            voucherIds.add(voucherId);
+            keys.addAll(voucherKeys);
+            keyCounts.add(voucherKeys.size());
+        });
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> values;
+        try {
+            values = stringRedisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception e) {
+            log.warn("读取秒杀库存失败，令牌桶保持不变", e);
+            return;
+        }
+        if (values == null) {
+            return;
+        }
+        int offset = 0;
+        for (int i = 0; i < voucherIds.size(); i++) {
+            long stock = sumStock(values, offset, keyCounts.get(i));
+            offset += keyCounts.get(i);
+            Bucket bucket = buckets.get(voucherIds.get(i));
+            if (bucket != null && stock >= 0) {
+                bucket.adjust(stock, now, config);
+            }
+        }
+    }
+
+    /** 各秒杀券的速率、容量、放行和拒绝的请求数 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", seckillProperties.getAdmission().isEnabled());
+        long admitted = 0, shed = 0;
+        Map<Long, Object> vouchers = new LinkedHashMap<>();
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("rate", Math.round(bucket.rate));
+            item.put("burst", bucket.burst);
+            item.put("overridden", bucket.overridden);
+            item.put("remainingStock", bucket.lastStock);
+            item.put("admitted", bucket.admitted.sum());
+            item.put("shed", bucket.shed.sum());
+            vouchers.put(entry.getKey(), item);
+            admitted += bucket.admitted.sum();
+            shed += bucket.shed.sum();
+        }
+        stats.put("admitted", admitted);
+        stats.put("shed", shed);
+        stats.put("vouchers", vouchers);
+        return stats;
+    }
+
+    private static final class Bucket {
+        /** 理论到达时间(纳秒)，早于当前时间表示桶是满的 */
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+        /** 每个令牌的间隔(纳秒) */
+        private volatile long interval;
+        /** 桶容量对应的时间(纳秒) */
+        private volatile long tolerance;
+        private volatile double rate;
+        private volatile long burst;
+        private volatile boolean overridden;
+        private volatile long lastAccess = System.nanoTime();
+
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder shed = new LongAdder();
+        /** 上次调整时的剩余库存和时间，用于计算消耗速度；创建时在请求线程写入，stats() 在其他线程读取 */
+        private volatile long lastStock = -1;
+        private volatile long lastAdjustNanos;
+
+        private Bucket(double rate, long burst) {
+            resize(rate, burst);
+        }
+
+        private void resize(double rate, long burst) {
+            this.rate = Math.max(rate, 0.001);
+            this.burst = Math.max(burst, 1);
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / this.rate));
+            this.tolerance = this.interval * this.burst;
+        }
+
+        /** 桶内只留 tokens 个令牌：TAT 推后到 当前时间 + 容量 - tokens 个间隔 */
+        private void fill(long tokens) {
+            long now = System.nanoTime();
+            tat.set(now + tolerance - Math.max(0, Math.min(tokens, burst)) * interval);
+        }
+
+        private boolean tryAcquire() {
+            long now = System.nanoTime();
+            lastAccess = now;
+            long interval = this.interval;
+            long tolerance = this.tolerance;
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + interval;
+                if (next - now > tolerance) {
+                    shed.increment();
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    admitted.increment();
+                    return true;
+                }
+            }
+        }
+
+        /** 只在定时任务线程中调用 */
+        private void adjust(long stock, long now, SeckillProperties.Admission config) {
+            if (overridden) {
+                return;
+            }
+            int nodes = Math.max(1, config.getNodes());
+            double rate = this.rate;
+            if (lastStock >= 0 && now > lastAdjustNanos) {
+                double drainPerSecond = (lastStock - stock) * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastAdjustNanos);
+                if (drainPerSecond > 0) {
+                    rate = Math.min(drainPerSecond / nodes * config.getHeadroom(), this.rate * config.getHeadroom());
+                }
+            }
+            rate = Math.max(config.getMinRate(), Math.min(config.getMaxRate(), rate));
+            long burst = burstOf(stock, config);
+            lastStock = stock;
+            lastAdjustNanos = now;
+            if (rate != this.rate || burst != this.burst) {
+                resize(rate, burst);
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * redis秒杀状态与数据库对账，逐个检查redis中有时间窗口的秒杀券
+ *      数据库 -> redis：游标流式读取有效订单(未取消、未退款)的下单用户，每批用pipeline SISMEMBER检查下单用户集合
+ *                      不在集合中的用户可以重复下单，修复时 SADD
+ *      redis -> 数据库：SSCAN遍历下单用户集合，每批一条IN查询检查有效订单
+ *                      没有有效订单的用户在stream为空(已抢到的订单都已写入数据库)后再查一次确认，确认后占着名额，修复时 SREM
+ *      库存：stream为空且该券没有正在取消的超时订单时，redis库存应等于数据库库存；读取前后redis库存和stream都没有变化才比较，
+ *           修复时按差值 INCRBY，期间的扣减不会被覆盖
+ * 分段库存的下单用户集合按用户路由到所属分段，检查和修复都只访问所属分段的key，每个分段单独SSCAN；
+ * 各分段不在同一个slot，库存逐个读取和修正，不使用跨分段的脚本
+ * 两个方向都只占用一批的内存；每批处理后按 rowsPerSecond 限速，可以在秒杀进行中执行
+ * 下单用户集合的修复只改名额，库存由最后的库存比较统一修复
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+    private static final int VOUCHER_BATCH_SIZE = 200;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+    @Resource
+    private SeckillVoucherStates seckillVoucherStates;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    /** 定时对账，cron为"-"时不执行 */
+    @Scheduled(cron = "${hmdp.seckill.reconcile.cron:-}")
+    public void scheduledReconcile() {
+        reconcile(null, null);
+    }
+
+    /**
+     * 对账
+     * @param voucherId 只检查该秒杀券，为null时检查所有redis中有时间窗口的秒杀券
+     * @param repair 是否修复，为null时使用配置
+     * @return 对账报告，已有对账在进行中返回null
+     */
+    public Map<String, Object> reconcile(Long voucherId, Boolean repair) {
+        if (!seckillProperties.isAsyncOrder()) {
+            // 同步流程不使用redis库存和下单用户集合
+            return Collections.singletonMap("skipped", "asyncOrder=false");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return doReconcile(voucherId, repair == null ? seckillProperties.getReconcile().isRepair() : repair);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Map<String, Object> doReconcile(Long voucherId, boolean repair) {
+        long start = System.currentTimeMillis();
+        Pacer pacer = new Pacer(seckillProperties.getReconcile().getRowsPerSecond());
+        List<Map<String, Object>> mismatched = new ArrayList<>();
+        int checked = 0;
+        if (voucherId != null) {
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            if (voucher != null) {
+                checked++;
+                collect(mismatched, reconcileVoucher(voucher, repair, pacer));
+            }
+        } else {
+            long lastId = 0;
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .gt("voucher_id", lastId).orderByAsc("voucher_id").last("limit " + VOUCHER_BATCH_SIZE).list();
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (SeckillVoucher voucher : vouchers) {
+                        stringConnection.exists(seckillKey(SECKILL_WINDOW_KEY, voucher.getVoucherId()));
+                    }
+                    return null;
+                });
+                for (int i = 0; i < vouchers.size(); i++) {
+                    if (Boolean.TRUE.equals(exists.get(i))) {
+                        checked++;
+                        collect(mismatched, reconcileVoucher(vouchers.get(i), repair, pacer));
+                    }
+                }
+                lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", start);
+        report.put("durationMillis", System.currentTimeMillis() - start);
+        report.put("repair", repair);
+        report.put("vouchers", checked);
+        report.put("rows", pacer.rows);
+        report.put("throttledMillis", pacer.throttledMillis);
+        report.put("mismatched", mismatched);
+        lastReport = report;
+        log.info("秒杀对账完成，检查{}个秒杀券，{}个不一致，耗时{}ms", checked, mismatched.size(), report.get("durationMillis"));
+        return report;
+    }
+
+    private static void collect(List<Map<String, Object>> mismatched, Map<String, Object> result) {
+        if (result != null) {
+            mismatched.add(result);
+        }
+    }
+
+    /** @return 不一致时返回该秒杀券的明细，一致返回null */
+    private Map<String, Object> reconcileVoucher(SeckillVoucher voucher, boolean repair, Pacer pacer) {
+        Long voucherId = voucher.getVoucherId();
+        long start = System.currentTimeMillis();
+        Integer segments = seckillStockSegments.segmentsOf(voucherId);
+        if (segments == null) {
+            segments = seckillStockSegments.loadSegments(voucherId);
+        }
+        long[] dbOnly = checkDbBuyers(voucherId, segments, repair, pacer);
+        long[] redisOnly = checkRedisBuyers(voucherId, segments, repair, pacer);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("voucherId", voucherId);
+        result.put("dbOrders", dbOnly[0]);
+        result.put("redisBuyers", redisOnly[0]);
+        result.put("missingInRedis", dbOnly[1]);
+        result.put("missingInDb", redisOnly[1]);
+        result.put("unconfirmed", redisOnly[3]);
+        boolean consistent = dbOnly[1] == 0 && redisOnly[1] == 0;
+        consistent &= checkStock(voucherId, segments, repair, result);
+        if (repair) {
+            result.put("repairedBuyers", dbOnly[2] + redisOnly[2]);
+        }
+        result.put("durationMillis", System.currentTimeMillis() - start);
+        return consistent ? null : result;
+    }
+
+    /**
+     * 数据库 -> redis
+     * 游标打开期间同一个连接不能执行其他查询，不在集合中的用户先记下，游标关闭后再确认订单仍然有效(期间可能已取消)
+     * @param segments 分段数，不分段为null
+     * @return {有效订单数, 不在下单用户集合中的数量, 修复数量}
+     */
+    private long[] checkDbBuyers(Long voucherId, Integer segments, boolean repair, Pacer pacer) {
+        int batchSize = seckillProperties.getReconcile().getBatchSize();
+        long[] counts = new long[3];
+        List<Long> candidates = new ArrayList<>();
+        // 游标需要在事务中遍历，读已提交，不持有快照
+        TransactionTemplate readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        readOnly.setReadOnly(true);
+        readOnly.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        readOnly.executeWithoutResult(status -> {
+            try (Cursor<Long> cursor = voucherOrderMapper.streamActiveBuyers(voucherId)) {
+                List<Long> batch = new ArrayList<>(batchSize);
+                for (Long userId : cursor) {
+                    batch.add(userId);
+                    if (batch.size() == batchSize) {
+                        counts[0] += batch.size();
+                        candidates.addAll(notMembers(voucherId, segments, batch));
+                        pacer.acquire(batch.size());
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    counts[0] += batch.size();
+                    candidates.addAll(notMembers(voucherId, segments, batch));
+                    pacer.acquire(batch.size());
+                }
+            } catch (IOException e) {
+                log.warn("关闭订单游标失败", e);
+            }
+        });
+        for (int i = 0; i < candidates.size(); i += batchSize) {
+            List<Long> batch = candidates.subList(i, Math.min(candidates.size(), i + batchSize));
+            List<Long> missing = notMembers(voucherId, segments, voucherOrderMapper.selectActiveBuyers(voucherId, batch));
+            counts[1] += missing.size();
+            if (repair && !missing.isEmpty()) {
+                counts[2] += addBuyers(voucherId, segments, missing);
+            }
+        }
+        return counts;
+    }
+
+    /** 用户所属的下单用户集合 */
+    private static String buyersKey(Long voucherId, Integer segments, Long userId) {
+        return segments == null ? seckillKey(SECKILL_ORDER_KEY, voucherId)
+                : SeckillStockSegments.buyersKeyOf(voucherId, segments, userId);
+    }
+
+    private long addBuyers(Long voucherId, Integer segments, Collection<Long> userIds) {
+        if (segments != null) {
+            return seckillStockSegments.addBuyers(voucherId, segments, userIds);
+        }
+        Long added = stringRedisTemplate.opsForSet().add(seckillKey(SECKILL_ORDER_KEY, voucherId),
+                userIds.stream().map(String::valueOf).toArray(String[]::new));
+        return added == null ? 0 : added;
+    }
+
+    /** pipeline SISMEMBER，每个用户检查所属的集合，返回不在集合中的用户 */
+    private List<Long> notMembers(Long voucherId, Integer segments, List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> members = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                stringConnection.sIsMember(buyersKey(voucherId, segments, userId), userId.toString());
+            }
+            return null;
+        });
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            if (!Boolean.TRUE.equals(members.get(i))) {
+                missing.add(userIds.get(i));
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * redis -> 数据库，分段库存逐个分段SSCAN
+     * @return {下单用户数, 没有有效订单的数量, 修复数量, stream不为空无法确认的数量}
+     */
+    private long[] checkRedisBuyers(Long voucherId, Integer segments, boolean repair, Pacer pacer) {
+        long[] counts = new long[4];
+        if (segments == null) {
+            scanBuyers(voucherId, seckillKey(SECKILL_ORDER_KEY, voucherId), repair, pacer, counts);
+        } else {
+            for (int i = 0; i < segments; i++) {
+                scanBuyers(voucherId, SeckillStockSegments.buyersKey(voucherId, i), repair, pacer, counts);
+            }
+        }
+        return counts;
+    }
+
+    private void scanBuyers(Long voucherId, String buyersKey, boolean repair, Pacer pacer, long[] counts) {
+        int batchSize = seckillProperties.getReconcile().getBatchSize();
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        try (org.springframework.data.redis.core.Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(buyersKey, options)) {
+            // SSCAN 可能重复返回同一个成员，重复的成员只会多检查一次
+            Set<Long> batch = new HashSet<>(batchSize * 2);
+            while (cursor.hasNext()) {
+                batch.add(Long.valueOf(cursor.next()));
+                if (batch.size() == batchSize) {
+                    checkOrders(voucherId, buyersKey, batch, repair, counts);
+                    pacer.acquire(batch.size());
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                checkOrders(voucherId, buyersKey, batch, repair, counts);
+                pacer.acquire(batch.size());
+            }
+        } catch (IOException e) {
+            log.warn("关闭SSCAN游标失败", e);
+        }
+    }
+
+    private void checkOrders(Long voucherId, String buyersKey, Set<Long> userIds, boolean repair, long[] counts) {
+        counts[0] += userIds.size();
+        Set<Long> missing = new HashSet<>(userIds);
+        missing.removeAll(voucherOrderMapper.selectActiveBuyers(voucherId, userIds));
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (!streamDrained()) {
+            // 可能是还没写入数据库的订单，无法确认
+            counts[3] += missing.size();
+            return;
+        }
+        // stream为空时所有已抢到的订单都已写入数据库，再查一次排除刚写入的
+        missing.removeAll(voucherOrderMapper.selectActiveBuyers(voucherId, missing));
+        counts[1] += missing.size();
+        if (repair && !missing.isEmpty()) {
+            Long removed = stringRedisTemplate.opsForSet().remove(buyersKey, missing.stream().map(String::valueOf).toArray());
+            counts[2] += removed == null ? 0 : removed;
+        }
+    }
+
+    private boolean streamDrained() {
+        Long size = stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY);
+        return size == null || size == 0;
+    }
+
+    /**
+     * 先读redis再读数据库，最后检查该券正在取消的超时订单：
+     * 读取数据库之前已提交取消的订单，在退回redis库存之前一直留在认领记录中，这里一定能看到；
+     * 之后提交的取消不计入读到的数据库库存，退回redis时在差值修复后的库存上增加，结果仍然一致
+     * 最后再读一次redis库存和stream，期间有扣减、退回或新订单则不比较
+     * 秒杀脚本扣减后到写入stream之间的订单两次读取都看不到，这个窗口内修复会多补库存；
+     * 数据库扣减有 stock>0 的条件不会超卖，多抢到的订单写入失败后进入死信
+     * @return 库存是否一致(无法比较时视为一致)
+     */
+    private boolean checkStock(Long voucherId, Integer segments, boolean repair, Map<String, Object> result) {
+        List<String> keys = segments == null ? Collections.singletonList(seckillKey(SECKILL_STOCK_KEY, voucherId))
+                : SeckillStockSegments.segmentKeys(voucherId, segments);
+        boolean drained = streamDrained();
+        List<String> before = stringRedisTemplate.opsForValue().multiGet(keys);
+        int dbStock = seckillVoucherService.getById(voucherId).getStock();
+        long cancelling = drained ? cancellingOrders(voucherId) : 0;
+        List<String> after = stringRedisTemplate.opsForValue().multiGet(keys);
+        long redisStock = sum(after);
+        result.put("dbStock", dbStock);
+        result.put("redisStock", redisStock);
+        if (redisStock < 0 || !drained || cancelling != 0 || !streamDrained() || !before.equals(after)) {
+            result.put("stockCompared", false);
+            return true;
+        }
+        if (redisStock == dbStock) {
+            return true;
+        }
+        if (repair) {
+            long delta = dbStock - redisStock;
+            long repaired = segments == null ? increment(keys.get(0), delta)
+                    : seckillStockSegments.adjust(voucherId, segments, delta);
+            result.put("stockRepaired", repaired == delta);
+            if (segments != null && dbStock > 0) {
+                // 售罄后已从登记表中删除，重新登记
+                stringRedisTemplate.opsForHash().put(SECKILL_SEGMENTS_KEY, voucherId.toString(), segments.toString());
+            }
+            seckillVoucherStates.publishReset(voucherId);
+        }
+        return false;
+    }
+
+    /** 库存之和，全部不存在(还没有加载到redis)返回-1 */
+    private static long sum(List<String> values) {
+        long total = -1;
+        for (String value : values == null ? Collections.<String>emptyList() : values) {
+            if (value != null) {
+                total = Math.max(total, 0) + Long.parseLong(value);
+            }
+        }
+        return total;
+    }
+
+    private long increment(String key, long delta) {
+        stringRedisTemplate.opsForValue().increment(key, delta);
+        return delta;
+    }
+
+    /**
+     * 该券已被认领、正在取消的超时订单数
+     * 认领记录中是所有券的订单，只有各节点工作线程正在处理的一批，数量很小，按订单id查出其中属于该券的
+     */
+    private long cancellingOrders(Long voucherId) {
+        Set<Object> orderIds = stringRedisTemplate.opsForHash().keys(ORDER_TIMEOUT_LEASE_KEY);
+        if (orderIds == null || orderIds.isEmpty()) {
+            return 0;
+        }
+        Integer count = voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>()
+                .eq("voucher_id", voucherId).in("id", orderIds));
+        return count == null ? 0 : count;
+    }
+
+    /** 最近一次对账的报告 */
+    public Map<String, Object> lastReport() {
+        Map<String, Object> report = new LinkedHashMap<>(lastReport);
+        report.put("running", running.get());
+        return report;
+    }
+
+    /** 按每秒处理的数量限速 */
+    private static final class Pacer {
+        private final int rowsPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long rows;
+        private long throttledMillis;
+
+        private Pacer(int rowsPerSecond) {
+            this.rowsPerSecond = rowsPerSecond;
+        }
+
+        private void acquire(int n) {
+            rows += n;
+            if (rowsPerSecond <= 0) {
+                return;
+            }
+            long expectedNanos = rows * TimeUnit.SECONDS.toNanos(1) / rowsPerSecond;
+            long aheadMillis = TimeUnit.NANOSECONDS.toMillis(expectedNanos - (System.nanoTime() - startNanos));
+            if (aheadMillis > 0) {
+                throttledMillis += aheadMillis;
+                try {
+                    Thread.sleep(aheadMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 分段库存：超大库存的秒杀券把库存拆成N个分段，每个分段一个hash tag {优惠券id:分段}，在redis集群中分布在不同的slot上
+ *      分段：库存 seckill:stock:{id:i} 和下单用户集合 seckill:order:{id:i} 位于同一个slot
+ *      路由：按用户id散列到所属分段，一人一单只在所属分段的下单用户集合中判断，脚本只访问所属分段的两个key；
+ *           所属分段扣完时先记下用户，再从其他分段借用(每次只访问一个分段的库存)，借用失败时移除用户
+ *      时间窗口：由调用方用本地的 SeckillVoucherRegistry 判断，不访问共享的时间窗口key
+ *      再平衡：定时检查，有分段已扣完而其他分段还有剩余时把剩余库存重新平均分配，
+ *             剩余库存少于分段数时(临近售罄)集中到前面的分段；各分段不在同一个slot，先从多的分段取走再加到少的分段，
+ *             期间的扣减不受影响，取走的库存全部放回，两步之间宕机丢失的库存由对账修复
+ * 分段数在新增秒杀券时指定，记录在时间窗口的 segments 字段和 SECKILL_SEGMENTS_KEY 登记表中，
+ * 各节点第一次遇到该秒杀券时读取一次并缓存在本地
+ */
+@Slf4j
+@Component
+public class SeckillStockSegments {
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /** 优惠券id -> 分段数 */
+    private final Map<Long, Integer> segments = new ConcurrentHashMap<>();
+    private final LongAdder rebalanced = new LongAdder();
+    private final LongAdder borrowed = new LongAdder();
+
+    public SeckillStockSegments(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public static String segmentKey(Long voucherId, int index) {
+        return seckillSegmentKey(SECKILL_STOCK_KEY, voucherId, index);
+    }
+
+    /** 所有分段的库存key */
+    public static List<String> segmentKeys(Long voucherId, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(segmentKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    /** 分段的下单用户集合 */
+    public static String buyersKey(Long voucherId, int index) {
+        return seckillSegmentKey(SECKILL_ORDER_KEY, voucherId, index);
+    }
+
+    /** 用户所属分段的下单用户集合 */
+    public static String buyersKeyOf(Long voucherId, int count, Long userId) {
+        return buyersKey(voucherId, homeSegment(userId, count));
+    }
+
+    /** 本节点已知的分段数，不是分段库存或还不知道时返回null */
+    public Integer segmentsOf(Long voucherId) {
+        return segments.get(voucherId);
+    }
+
+    /** 记录已知的分段数 */
+    public void putSegments(Long voucherId, int count) {
+        segments.put(voucherId, count);
+    }
+
+    /** 从redis读取分段数并缓存，不是分段库存时返回null */
+    public Integer loadSegments(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(seckillKey(SECKILL_WINDOW_KEY, voucherId), "segments");
+        if (value == null) {
+            return null;
+        }
+        int count = Integer.parseInt(value.toString());
+        segments.put(voucherId, count);
+        return count;
+    }
+
+    /** 用户所属的分段 */
+    public static int homeSegment(Long userId, int count) {
+        return Math.floorMod(spread(userId), count);
+    }
+
+    /** 秒杀脚本的key：所属分段的下单用户集合、库存 */
+    public static List<String> homeKeys(Long voucherId, int index) {
+        return Arrays.asList(buyersKey(voucherId, index), segmentKey(voucherId, index));
+    }
+
+    private static int spread(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 所属分段扣完时，从后面的分段依次借用一个库存
+     * @return 借到库存的分段，全部没有库存返回-1
+     */
+    public int borrow(Long voucherId, int home, int count) {
+        for (int i = 1; i < count; i++) {
+            int index = (home + i) % count;
+            if (take(voucherId, index, 1) == 1) {
+                borrowed.increment();
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private long take(Long voucherId, int index, long max) {
+        Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, Collections.singletonList(segmentKey(voucherId, index)),
+                String.valueOf(max));
+        return taken == null ? 0 : taken;
+    }
+
+    /**
+     * 写入各分段的库存，库存平均分配，已存在的分段不覆盖
+     * @return 是否写入了分段
+     */
+    public boolean init(Long voucherId, int stock, int count) {
+        boolean created = false;
+        for (int i = 0; i < count; i++) {
+            created |= Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(segmentKey(voucherId, i), String.valueOf(share(stock, count, i))));
+        }
+        return created;
+    }
+
+    /** 平均分配时第i个分段的数量，余数分给前面的分段 */
+    private static long share(long total, int count, int index) {
+        return total / count + (index < total % count ? 1 : 0);
+    }
+
+    /**
+     * 用户写入各自所属分段的下单用户集合
+     * @return 新写入的用户数
+     */
+    public long addBuyers(Long voucherId, int count, Collection<Long> userIds) {
+        long added = 0;
+        for (Map.Entry<Integer, List<String>> entry : byHome(count, userIds).entrySet()) {
+            Long n = stringRedisTemplate.opsForSet().add(buyersKey(voucherId, entry.getKey()), entry.getValue().toArray(new String[0]));
+            added += n == null ? 0 : n;
+        }
+        return added;
+    }
+
+    /**
+     * 取消订单后退回库存：用户从所属分段的下单用户集合中移除，库存加到第一个分段上，由再平衡分配
+     * 第一个分段不存在时(还没有加载到redis)不退回，下次秒杀时会从数据库加载
+     * @return 是否退回了库存
+     */
+    public boolean returnStock(Long voucherId, int count, Collection<Long> userIds) {
+        for (Map.Entry<Integer, List<String>> entry : byHome(count, userIds).entrySet()) {
+            stringRedisTemplate.opsForSet().remove(buyersKey(voucherId, entry.getKey()), entry.getValue().toArray());
+        }
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(segmentKey(voucherId, 0)))) {
+            return false;
+        }
+        stringRedisTemplate.opsForValue().increment(segmentKey(voucherId, 0), userIds.size());
+        // 售罄后已从登记表中删除，重新登记
+        stringRedisTemplate.opsForHash().put(SECKILL_SEGMENTS_KEY, voucherId.toString(), String.valueOf(count));
+        return true;
+    }
+
+    private static Map<Integer, List<String>> byHome(int count, Collection<Long> userIds) {
+        Map<Integer, List<String>> byHome = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            byHome.computeIfAbsent(homeSegment(userId, count), k -> new ArrayList<>()).add(userId.toString());
+        }
+        return byHome;
+    }
+
+    /**
+     * 补充分段库存：加到第一个分段上，由再平衡分配到其他分段
+     * @return 不是分段库存返回false
+     */
+    public boolean addStock(Long voucherId, int amount) {
+        Integer count = segmentsOf(voucherId);
+        if (count == null) {
+            count = loadSegments(voucherId);
+        }
+        if (count == null) {
+            return false;
+        }
+        stringRedisTemplate.opsForValue().increment(segmentKey(voucherId, 0), amount);
+        // 售罄后已从登记表中删除，重新登记
+        stringRedisTemplate.opsForHash().put(SECKILL_SEGMENTS_KEY, voucherId.toString(), count.toString());
+        return true;
+    }
+
+    /**
+     * 按差值修正分段库存：增加的加到第一个分段上；减少的依次从各分段取走，不会减成负数
+     * 只做相对修改，期间的扣减不会被覆盖
+     * @return 实际修正的数量
+     */
+    public long adjust(Long voucherId, int count, long delta) {
+        if (delta >= 0) {
+            stringRedisTemplate.opsForValue().increment(segmentKey(voucherId, 0), delta);
+            return delta;
+        }
+        long need = -delta;
+        for (int i = count - 1; i >= 0 && need > 0; i--) {
+            need -= take(voucherId, i, need);
+        }
+        return delta + need;
+    }
+
+    /**
+     * 定时对登记表中的所有分段库存做再平衡，多个节点同时执行时各自取走的库存都会放回，总数不变
+     * 全部扣完时从登记表中删除；删除后再检查一次库存，期间补充了库存则重新登记
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.segment.rebalance-interval-millis:1000}")
+    public void rebalance() {
+        Map<Object, Object> registered;
+        try {
+            registered = stringRedisTemplate.opsForHash().entries(SECKILL_SEGMENTS_KEY);
+        } catch (Exception e) {
+            log.warn("读取分段库存登记表失败", e);
+            return;
+        }
+        registered.forEach((id, count) -> {
+            Long voucherId = Long.valueOf(id.toString());
+            try {
+                if (!rebalance(voucherId, Integer.parseInt(count.toString()))) {
+                    stringRedisTemplate.opsForHash().delete(SECKILL_SEGMENTS_KEY, id);
+                    if (remaining(voucherId, Integer.parseInt(count.toString())) > 0) {
+                        stringRedisTemplate.opsForHash().put(SECKILL_SEGMENTS_KEY, id.toString(), count.toString());
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("优惠券{}分段库存再平衡失败", voucherId, e);
+            }
+        });
+    }
+
+    /**
+     * 有分段已扣完而剩余库存足以让更多分段有库存时，按平均分配的目标先取走多出的部分，再补给不足的分段
+     * @return 已全部扣完返回false
+     */
+    private boolean rebalance(Long voucherId, int count) {
+        long[] left = read(voucherId, count);
+        long total = 0;
+        int empty = 0;
+        for (long value : left) {
+            total += value;
+            if (value <= 0) {
+                empty++;
+            }
+        }
+        if (total <= 0) {
+            return false;
+        }
+        // 剩余库存不足以让每段至少1个时，只有后面的分段为空是期望状态
+        if (empty <= Math.max(count - total, 0)) {
+            return true;
+        }
+        long pool = 0;
+        for (int i = 0; i < count; i++) {
+            long surplus = left[i] - share(total, count, i);
+            if (surplus > 0) {
+                pool += take(voucherId, i, surplus);
+            }
+        }
+        for (int i = 0; i < count && pool > 0; i++) {
+            long deficit = share(total, count, i) - left[i];
+            if (deficit > 0) {
+                long give = Math.min(deficit, pool);
+                stringRedisTemplate.opsForValue().increment(segmentKey(voucherId, i), give);
+                pool -= give;
+            }
+        }
+        if (pool > 0) {
+            // 读取之后有分段被扣减，取走的比预期少，补给后剩下的放回第一个分段
+            stringRedisTemplate.opsForValue().increment(segmentKey(voucherId, 0), pool);
+        }
+        rebalanced.increment();
+        log.debug("优惠券{}的分段库存已重新分配", voucherId);
+        return true;
+    }
+
+    /** 各分段的库存，不存在为0 */
+    public long[] read(Long voucherId, int count) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(segmentKeys(voucherId, count));
+        long[] left = new long[count];
+        for (int i = 0; i < count && values != null; i++) {
+            left[i] = values.get(i) == null ? 0 : Long.parseLong(values.get(i));
+        }
+        return left;
+    }
+
+    /** 所有分段的剩余库存 */
+    public long remaining(Long voucherId, int count) {
+        long total = 0;
+        for (long value : read(voucherId, count)) {
+            total += value;
+        }
+        return total;
+    }
+
+    /** 本节点已知的分段库存秒杀券、再平衡和借用次数 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("vouchers", new LinkedHashMap<>(segments));
+        stats.put("rebalanced", rebalanced.sum());
+        stats.put("borrowed", borrowed.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,239 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本节点的进行中/未开始秒杀券元数据(时间窗口、库存分段数)，秒杀请求判断时间不再查询数据库
+ *      启动时从数据库分批加载未结束的秒杀券；之后只在 SECKILL_VOUCHER_CHANNEL 收到变更通知时从redis重新读取该秒杀券
+ *      元数据是不可变对象，整个表写时复制，读取不加锁
+ *      每个秒杀券在开始和结束时间各有一个定时任务：开始时清除"未开始"状态，结束时记录"已结束"状态并从表中删除
+ */
+@Slf4j
+@Component
+public class SeckillVoucherRegistry {
+    private static final int LOAD_BATCH_SIZE = 200;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ISeckillVoucherService seckillVoucherService;
+    private final SeckillVoucherStates seckillVoucherStates;
+    private final SeckillStockSegments seckillStockSegments;
+
+    private volatile Map<Long, Window> windows = Collections.emptyMap();
+    /** 优惠券id -> 开始、结束任务 */
+    private final Map<Long, ScheduledFuture<?>[]> boundaryTasks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-boundary");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SeckillVoucherRegistry(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                                  ISeckillVoucherService seckillVoucherService, SeckillVoucherStates seckillVoucherStates,
+                                  SeckillStockSegments seckillStockSegments) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherService = seckillVoucherService;
+        this.seckillVoucherStates = seckillVoucherStates;
+        this.seckillStockSegments = seckillStockSegments;
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                reload(Long.valueOf(body));
+            } catch (Exception e) {
+                log.warn("刷新秒杀券{}失败", body, e);
+            }
+        }, new ChannelTopic(SECKILL_VOUCHER_CHANNEL));
+    }
+
+    /** 本节点已知的秒杀券时间窗口，已结束或未知返回null */
+    public Window get(Long voucherId) {
+        return windows.get(voucherId);
+    }
+
+    /** 启动时从数据库加载所有未结束的秒杀券，库存分段数用一个pipeline从redis读取 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadAll() {
+        long lastId = 0;
+        int loaded = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("voucher_id", lastId).gt("end_time", LocalDateTime.now())
+                    .orderByAsc("voucher_id").last("limit " + LOAD_BATCH_SIZE).list();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            List<Object> segments = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    stringConnection.hGet(seckillKey(SECKILL_WINDOW_KEY, voucher.getVoucherId()), "segments");
+                }
+                return null;
+            });
+            for (int i = 0; i < vouchers.size(); i++) {
+                SeckillVoucher voucher = vouchers.get(i);
+                Object count = segments.get(i);
+                register(new Window(voucher.getVoucherId(), toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime()),
+                        count == null ? 1 : Integer.parseInt(count.toString())));
+            }
+            loaded += vouchers.size();
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+        log.info("已加载{}个未结束的秒杀券", loaded);
+    }
+
+    /**
+     * 本节点还不知道的秒杀券(例如变更通知还没到达)，从数据库加载一次
+     * @return 不存在返回null
+     */
+    public Window load(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        Integer segments = seckillStockSegments.segmentsOf(voucherId);
+        Window window = new Window(voucherId, toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime()),
+                segments == null ? 1 : segments);
+        register(window);
+        return window;
+    }
+
+    /** 收到变更通知后从redis读取最新的时间窗口 */
+    private void reload(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(seckillKey(SECKILL_WINDOW_KEY, voucherId),
+                Arrays.asList("begin", "end", "segments"));
+        if (values.get(0) == null || values.get(1) == null) {
+            unregister(voucherId);
+            return;
+        }
+        register(new Window(voucherId, Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString()),
+                values.get(2) == null ? 1 : Integer.parseInt(values.get(2).toString())));
+    }
+
+    private synchronized void register(Window window) {
+        Long voucherId = window.getVoucherId();
+        long now = System.currentTimeMillis();
+        cancelTasks(voucherId);
+        if (window.getSegments() > 1) {
+            seckillStockSegments.putSegments(voucherId, window.getSegments());
+        }
+        if (now > window.getEndMillis()) {
+            seckillVoucherStates.markEnded(voucherId);
+            unregister(voucherId);
+            return;
+        }
+        Map<Long, Window> copy = new HashMap<>(windows);
+        copy.put(voucherId, window);
+        windows = Collections.unmodifiableMap(copy);
+        ScheduledFuture<?> open = null;
+        if (now < window.getBeginMillis()) {
+            seckillVoucherStates.markNotStarted(voucherId, window.getBeginMillis());
+            open = scheduler.schedule(() -> open(window), window.getBeginMillis() - now, TimeUnit.MILLISECONDS);
+        }
+        // 结束时间之后才算结束，与秒杀脚本的 now > end 一致
+        ScheduledFuture<?> close = scheduler.schedule(() -> close(window),
+                window.getEndMillis() + 1 - now, TimeUnit.MILLISECONDS);
+        boundaryTasks.put(voucherId, new ScheduledFuture<?>[]{open, close});
+    }
+
+    private synchronized void unregister(Long voucherId) {
+        cancelTasks(voucherId);
+        if (windows.containsKey(voucherId)) {
+            Map<Long, Window> copy = new HashMap<>(windows);
+            copy.remove(voucherId);
+            windows = Collections.unmodifiableMap(copy);
+        }
+    }
+
+    private void cancelTasks(Long voucherId) {
+        ScheduledFuture<?>[] tasks = boundaryTasks.remove(voucherId);
+        if (tasks != null) {
+            for (ScheduledFuture<?> task : tasks) {
+                if (task != null) {
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    private void open(Window window) {
+        seckillVoucherStates.open(window.getVoucherId());
+        log.info("秒杀券{}开始", window.getVoucherId());
+    }
+
+    private void close(Window window) {
+        seckillVoucherStates.markEnded(window.getVoucherId());
+        synchronized (this) {
+            // 期间重新发布过(时间窗口已变化)的不删除
+            if (windows.get(window.getVoucherId()) == window) {
+                boundaryTasks.remove(window.getVoucherId());
+                Map<Long, Window> copy = new HashMap<>(windows);
+                copy.remove(window.getVoucherId());
+                windows = Collections.unmodifiableMap(copy);
+            }
+        }
+        log.info("秒杀券{}结束", window.getVoucherId());
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /** 本节点已加载的秒杀券数量，以及未开始/进行中的数量 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        int notStarted = 0;
+        Map<Long, Window> current = windows;
+        for (Window window : current.values()) {
+            if (now < window.getBeginMillis()) {
+                notStarted++;
+            }
+        }
+        stats.put("vouchers", current.size());
+        stats.put("notStarted", notStarted);
+        stats.put("active", current.size() - notStarted);
+        return stats;
+    }
+
+    /** 秒杀券的时间窗口，不可变 */
+    @Value
+    public static class Window {
+        Long voucherId;
+        long beginMillis;
+        long endMillis;
+        int segments;
+    }
+}
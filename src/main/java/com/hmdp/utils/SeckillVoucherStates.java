@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STATE_CHANNEL;
+
+/**
+ * 本节点已知的不可购买秒杀券：售罄、未开始、已结束
+ * 命中时直接拒绝请求，不访问redis和数据库
+ *      售罄：库存扣减到0时由秒杀脚本在 SECKILL_STATE_CHANNEL 发布 soldout:id，所有节点同时记录；
+ *           本节点判断出库存不足时也会记录(错过消息或启动前已售罄)
+ *      未开始：记录开始时间，到时间后自动失效
+ *      已结束：一直有效
+ * 补充库存或重新发布秒杀券时发布 reset:id，所有节点清除该券的状态，下一次请求重新判断
+ */
+@Slf4j
+@Component
+public class SeckillVoucherStates {
+    /** 与秒杀脚本的返回值一致 */
+    public static final int SOLD_OUT = 1;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+
+    private static final String SOLD_OUT_PREFIX = "soldout:";
+    private static final String RESET_PREFIX = "reset:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<Long, State> states = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    public SeckillVoucherStates(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener((message, pattern) ->
+                onMessage(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(SECKILL_STATE_CHANNEL));
+    }
+
+    private void onMessage(String body) {
+        try {
+            if (body.startsWith(SOLD_OUT_PREFIX)) {
+                markSoldOut(Long.valueOf(body.substring(SOLD_OUT_PREFIX.length())));
+            } else if (body.startsWith(RESET_PREFIX)) {
+                states.remove(Long.valueOf(body.substring(RESET_PREFIX.length())));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的秒杀状态消息：{}", body);
+        }
+    }
+
+    /**
+     * 判断本节点是否已知该秒杀券不可购买
+     * @return 不可购买的原因(SOLD_OUT / NOT_STARTED / ENDED)，未知返回0
+     */
+    public int reject(Long voucherId) {
+        State state = states.get(voucherId);
+        if (state == null) {
+            return 0;
+        }
+        if (state.untilMillis != Long.MAX_VALUE && System.currentTimeMillis() >= state.untilMillis) {
+            // 已到开始时间，删除前确认没有被替换成其他状态
+            states.remove(voucherId, state);
+            return 0;
+        }
+        rejected.increment();
+        return state.code;
+    }
+
+    public void markSoldOut(Long voucherId) {
+        states.put(voucherId, new State(SOLD_OUT, Long.MAX_VALUE));
+    }
+
+    public void markEnded(Long voucherId) {
+        states.put(voucherId, new State(ENDED, Long.MAX_VALUE));
+    }
+
+    public void markNotStarted(Long voucherId, long beginMillis) {
+        if (beginMillis > System.currentTimeMillis()) {
+            states.put(voucherId, new State(NOT_STARTED, beginMillis));
+        }
+    }
+
+    /** 到达开始时间，清除未开始状态 */
+    public void open(Long voucherId) {
+        states.computeIfPresent(voucherId, (id, state) -> state.code == NOT_STARTED ? null : state);
+    }
+
+    /** 通知所有节点清除该秒杀券的状态 */
+    public void publishReset(Long voucherId) {
+        states.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_STATE_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    /** 通知所有节点该秒杀券已售罄 */
+    public void publishSoldOut(Long voucherId) {
+        markSoldOut(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_STATE_CHANNEL, SOLD_OUT_PREFIX + voucherId);
+    }
+
+    /** 各状态的秒杀券数量和本地拒绝的请求数 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int soldOut = 0, notStarted = 0, ended = 0;
+        for (State state : states.values()) {
+            if (state.code == SOLD_OUT) {
+                soldOut++;
+            } else if (state.code == NOT_STARTED) {
+                notStarted++;
+            } else {
+                ended++;
+            }
+        }
+        stats.put("soldOut", soldOut);
+        stats.put("notStarted", notStarted);
+        stats.put("ended", ended);
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+
+    private static final class State {
+        private final int code;
+        /** 状态失效的时间，只有未开始状态会失效 */
+        private final long untilMillis;
+
+        private State(int code, long untilMillis) {
+            this.code = code;
+            this.untilMillis = untilMillis;
+        }
+    }
+}
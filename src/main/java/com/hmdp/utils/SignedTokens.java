@@ -0,0 +1,345 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 签名token：s.密钥id.载荷.签名，载荷为 版本 + 会话id + 过期时间 + 用户id + 昵称 + 头像 的二进制，base64url编码
+ *      签名：HMAC-SHA256(s.密钥id.载荷) 取前16字节，密钥id参与签名，可以同时接受多个密钥，轮换时已签发的token仍然有效
+ *      校验：只在本地计算签名和查询吊销列表，不访问redis；剩余有效期低于 refreshBelowMinutes 时签发新token，会话id不变
+ *      吊销：按会话吊销，同一次登录续签出的所有token一起失效；会话id -> 吊销截止时间，写入redis zset并发布，
+ *           所有节点记录到本地，定时从redis全量同步并删除已过期的记录
+ * 只有 hmdp.session.mode=signed 时才签发和接受签名token，其他模式下 s. 开头的token按未登录处理
+ */
+@Slf4j
+@Component
+public class SignedTokens {
+    private static final String PREFIX = "s.";
+    private static final byte VERSION = 2;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_BYTES = 16;
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SessionProperties sessionProperties;
+    /** 是否签发和接受签名token */
+    private final boolean enabled;
+    /** 密钥id -> 密钥 */
+    private final Map<String, SigningKey> keys = new ConcurrentHashMap<>();
+    /** 已吊销的会话id -> 吊销截止时间(毫秒)，之后该会话的token都已过期 */
+    private final Map<Long, Long> denied = new ConcurrentHashMap<>();
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder unknownKey = new LongAdder();
+    private final LongAdder badSignature = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder deniedHits = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+    private final LongAdder renewed = new LongAdder();
+
+    public SignedTokens(StringRedisTemplate stringRedisTemplate, SessionProperties sessionProperties,
+                        RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sessionProperties = sessionProperties;
+        this.enabled = "signed".equals(sessionProperties.getMode());
+        if (!enabled) {
+            return;
+        }
+        SessionProperties.Signed config = sessionProperties.getSigned();
+        config.getKeys().forEach((id, secret) -> {
+            byte[] bytes = secret.getBytes(StandardCharsets.UTF_8);
+            if (id.isEmpty() || id.indexOf('.') >= 0 || bytes.length < MIN_SECRET_BYTES) {
+                throw new IllegalStateException("签名密钥 " + id + " 无效：id不能为空或包含'.'，密钥至少" + MIN_SECRET_BYTES + "字节");
+            }
+            keys.put(id, new SigningKey(id, bytes));
+        });
+        if (config.getActiveKey() == null || !keys.containsKey(config.getActiveKey())) {
+            throw new IllegalStateException("签名token模式需要配置 hmdp.session.signed.active-key 及对应的密钥");
+        }
+        // 订阅吊销消息，消息体为 会话id:吊销截止时间
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            try {
+                denied.put(Long.valueOf(body.substring(0, index)), Long.valueOf(body.substring(index + 1)));
+            } catch (RuntimeException e) {
+                log.warn("无法识别的吊销消息：{}", body);
+            }
+        }, new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+    }
+
+    /** 是否由本类处理：签名token模式下 s. 开头的token */
+    public boolean accepts(String token) {
+        return enabled && token.startsWith(PREFIX);
+    }
+
+    /** 登录：新会话，用当前密钥签发token，有效期 LOGIN_USER_TTL 分钟 */
+    public String issue(UserDTO user) {
+        return issue(user, ThreadLocalRandom.current().nextLong(),
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+    }
+
+    String issue(UserDTO user, long sessionId, long expireAtMillis) {
+        SigningKey key = enabled ? keys.get(sessionProperties.getSigned().getActiveKey()) : null;
+        if (key == null) {
+            throw new IllegalStateException("没有启用签名token或没有配置签名密钥 " + sessionProperties.getSigned().getActiveKey());
+        }
+        byte[] nickName = bytesOf(user.getNickName());
+        byte[] icon = bytesOf(user.getIcon());
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 8 + 8 + lengthOf(nickName) + lengthOf(icon));
+        payload.put(VERSION).putLong(sessionId).putLong(TimeUnit.MILLISECONDS.toSeconds(expireAtMillis)).putLong(user.getId());
+        putBytes(payload, nickName);
+        putBytes(payload, icon);
+        String unsigned = PREFIX + key.id + "." + ENCODER.encodeToString(payload.array());
+        issued.increment();
+        return unsigned + "." + ENCODER.encodeToString(key.sign(unsigned));
+    }
+
+    /**
+     * 校验签名、过期时间和吊销列表
+     * @return 无效时返回null
+     */
+    public Claims verify(String token) {
+        if (!enabled) {
+            return null;
+        }
+        int keyEnd = token.indexOf('.', PREFIX.length());
+        int payloadEnd = keyEnd < 0 ? -1 : token.indexOf('.', keyEnd + 1);
+        if (!token.startsWith(PREFIX) || payloadEnd < 0) {
+            malformed.increment();
+            return null;
+        }
+        SigningKey key = keys.get(token.substring(PREFIX.length(), keyEnd));
+        if (key == null) {
+            unknownKey.increment();
+            return null;
+        }
+        Claims claims;
+        try {
+            byte[] signature = DECODER.decode(token.substring(payloadEnd + 1));
+            if (!MessageDigest.isEqual(key.sign(token.substring(0, payloadEnd)), signature)) {
+                badSignature.increment();
+                return null;
+            }
+            claims = decodePayload(DECODER.decode(token.substring(keyEnd + 1, payloadEnd)));
+        } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            malformed.increment();
+            return null;
+        }
+        if (claims == null) {
+            malformed.increment();
+            return null;
+        }
+        if (claims.expireAtMillis <= System.currentTimeMillis()) {
+            expired.increment();
+            return null;
+        }
+        if (!denied.isEmpty() && denied.containsKey(claims.sessionId)) {
+            deniedHits.increment();
+            return null;
+        }
+        verified.increment();
+        return claims;
+    }
+
+    /**
+     * 剩余有效期低于 refreshBelowMinutes 时为同一会话签发新token，原token在过期前仍然有效
+     * @return 不需要续期时返回null
+     */
+    public String renewIfNeeded(Claims claims) {
+        long threshold = TimeUnit.MINUTES.toMillis(sessionProperties.getRefreshBelowMinutes());
+        if (claims.expireAtMillis - System.currentTimeMillis() >= threshold
+                || !enabled) {
+            return null;
+        }
+        renewed.increment();
+        return issue(claims.user, claims.sessionId, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+    }
+
+    /**
+     * 吊销token所属的会话：写入redis并通知所有节点，已无效的token不处理
+     * 吊销截止时间 = 现在 + 有效期 + 同步间隔：其他节点收到吊销前最多还能续签出一个有效期的token
+     */
+    public void revoke(String token) {
+        Claims claims = verify(token);
+        if (claims == null) {
+            return;
+        }
+        long until = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL)
+                + sessionProperties.getSigned().getDenySyncMillis();
+        denied.put(claims.sessionId, until);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, String.valueOf(claims.sessionId), until);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, claims.sessionId + ":" + until);
+        revoked.increment();
+    }
+
+    /** 启动时加载并定时同步吊销列表，清除已过期的记录 */
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${hmdp.session.signed.deny-sync-millis:30000}")
+    public void syncDenied() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    denied.put(Long.valueOf(tuple.getValue()), tuple.getScore().longValue());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("同步token吊销列表失败", e);
+        }
+        denied.values().removeIf(expireAt -> expireAt <= now);
+    }
+
+    private static Claims decodePayload(byte[] bytes) {
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        if (payload.get() != VERSION) {
+            return null;
+        }
+        long sessionId = payload.getLong();
+        long expireAt = payload.getLong();
+        UserDTO user = new UserDTO();
+        user.setId(payload.getLong());
+        user.setNickName(getString(payload));
+        user.setIcon(getString(payload));
+        return new Claims(user, sessionId, TimeUnit.SECONDS.toMillis(expireAt));
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** 长度(2字节，-1表示null) + 内容 */
+    private static int lengthOf(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("token字段过长");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /** 签发、校验失败原因、吊销列表大小 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", sessionProperties.getMode());
+        stats.put("activeKey", sessionProperties.getSigned().getActiveKey());
+        stats.put("keys", keys.keySet());
+        stats.put("issued", issued.sum());
+        stats.put("renewed", renewed.sum());
+        stats.put("verified", verified.sum());
+        stats.put("malformed", malformed.sum());
+        stats.put("unknownKey", unknownKey.sum());
+        stats.put("badSignature", badSignature.sum());
+        stats.put("expired", expired.sum());
+        stats.put("deniedHits", deniedHits.sum());
+        stats.put("revoked", revoked.sum());
+        stats.put("denySetSize", denied.size());
+        return stats;
+    }
+
+    /** token中的用户、会话和过期时间 */
+    public static final class Claims {
+        private final UserDTO user;
+        private final long sessionId;
+        private final long expireAtMillis;
+
+        private Claims(UserDTO user, long sessionId, long expireAtMillis) {
+            this.user = user;
+            this.sessionId = sessionId;
+            this.expireAtMillis = expireAtMillis;
+        }
+
+        public UserDTO getUser() {
+            return user;
+        }
+
+        public long getSessionId() {
+            return sessionId;
+        }
+
+        public long getExpireAtMillis() {
+            return expireAtMillis;
+        }
+    }
+
+    /** Mac不是线程安全的，每个线程一个 */
+    private static final class SigningKey {
+        private final String id;
+        private final ThreadLocal<Mac> mac;
+
+        private SigningKey(String id, byte[] secret) {
+            this.id = id;
+            SecretKeySpec spec = new SecretKeySpec(secret, ALGORITHM);
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac instance = Mac.getInstance(ALGORITHM);
+                    instance.init(spec);
+                    return instance;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("无法初始化" + ALGORITHM, e);
+                }
+            });
+            // 启动时检查算法可用
+            this.mac.get();
+        }
+
+        private byte[] sign(String content) {
+            return Arrays.copyOf(mac.get().doFinal(content.getBytes(StandardCharsets.US_ASCII)), SIGNATURE_BYTES);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * snowflake风格的全局id：1位标记 + 40位时间(毫秒，从2022-01-01起) + 10位机器号 + 12位序列号
+ *      机器号：启动时在redis中用 SET NX 租用 id:worker:0~1023 中的一个，每 heartbeatSeconds 续期；
+ *             续期失败超过租期后停止生成(其他节点可能已经拿到该机器号)，并重新租用
+ *      生成：上次的 毫秒+序列号 保存在一个AtomicLong中，只用CAS更新，不加锁，不访问redis
+ *      时钟回拨：不超过 maxBackwardMillis 时继续使用上次的毫秒，超过则拒绝生成
+ *      序列号用完：wait 自旋等待下一毫秒；borrow 借用后面的毫秒，最多领先时钟 maxBorrowMillis
+ * 最高位标记(第62位)保证与 RedisIdWorker 的 时间戳(秒)<<32|序列号 不重复
+ * 停止时不释放机器号，等租期过期，避免时钟稍慢的节点马上拿到该机器号生成重复的id
+ */
+@Slf4j
+@Component
+public class SnowflakeIdWorker {
+    private static final long EPOCH_MILLIS = 1640995200000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 10;
+    private static final int TIME_BITS = 40;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long MAX_TIME = (1L << TIME_BITS) - 1;
+    private static final long FLAG = 1L << (SEQUENCE_BITS + WORKER_BITS + TIME_BITS);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdProperties idProperties;
+    private final String token = UUID.randomUUID().toString(true);
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean started;
+
+    /** 上次生成的 毫秒 << SEQUENCE_BITS | 序列号 */
+    private final AtomicLong state = new AtomicLong();
+    private volatile int workerId = -1;
+    /** 本地认为租约有效的截止时间：续期命令发出的时间 + 租期，不晚于redis中的过期时间 */
+    private volatile long leaseValidUntil;
+
+    private final LongAdder sequenceWaits = new LongAdder();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder clockBackward = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder renewFailures = new LongAdder();
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.idProperties = idProperties;
+    }
+
+    /** 有前缀使用snowflake时启动即租用机器号，否则第一次生成时再租用 */
+    @PostConstruct
+    private void init() {
+        if (idProperties.getPrefixModes().containsValue("snowflake") || "snowflake".equals(idProperties.getMode())) {
+            start();
+        }
+    }
+
+    /** 租用机器号并开始续期，重复调用无影响 */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        acquire();
+        long interval = idProperties.getSnowflake().getHeartbeatSeconds();
+        heartbeat.scheduleAtFixedRate(this::renew, interval, interval, TimeUnit.SECONDS);
+        started = true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+    }
+
+    /** 从随机位置开始依次尝试，直到拿到一个空闲的机器号 */
+    private synchronized void acquire() {
+        long leaseMillis = TimeUnit.SECONDS.toMillis(idProperties.getSnowflake().getLeaseSeconds());
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int id = (start + i) % MAX_WORKERS;
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, token, leaseMillis, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = id;
+                leaseValidUntil = now + leaseMillis;
+                log.info("已租用机器号{}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的机器号");
+    }
+
+    private void renew() {
+        long leaseMillis = TimeUnit.SECONDS.toMillis(idProperties.getSnowflake().getLeaseSeconds());
+        long now = System.currentTimeMillis();
+        try {
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    token, String.valueOf(leaseMillis));
+            if (result != null && result == 1) {
+                leaseValidUntil = now + leaseMillis;
+                renewals.increment();
+                return;
+            }
+            // 租约已过期并可能被其他节点拿到，换一个机器号
+            renewFailures.increment();
+            log.warn("机器号{}的租约已丢失，重新租用", workerId);
+            acquire();
+        } catch (Exception e) {
+            renewFailures.increment();
+            log.warn("机器号{}续期失败，租约剩余{}ms", workerId, leaseValidUntil - now, e);
+        }
+    }
+
+    public long nextId() {
+        if (System.currentTimeMillis() >= leaseValidUntil) {
+            ensureLease();
+        }
+        IdProperties.Snowflake config = idProperties.getSnowflake();
+        int worker = workerId;
+        while (true) {
+            long current = state.get();
+            // 先读状态再读时钟，线程在两次读取之间被挂起也不会被误判为时钟回拨
+            long lastMillis = current >>> SEQUENCE_BITS;
+            long millis = System.currentTimeMillis() - EPOCH_MILLIS;
+            long next;
+            if (millis > lastMillis) {
+                next = millis << SEQUENCE_BITS;
+            } else {
+                // 落后上次的时间：借用领先的部分不超过 maxBorrowMillis，超出的是时钟回拨
+                long behind = lastMillis - millis;
+                if (behind > config.getMaxBorrowMillis()) {
+                    if (behind > config.getMaxBackwardMillis() + config.getMaxBorrowMillis()) {
+                        rejected.increment();
+                        throw new IllegalStateException("时钟回拨" + behind + "ms，拒绝生成id");
+                    }
+                    clockBackward.increment();
+                }
+                if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                    next = current + 1;
+                } else if ("borrow".equals(config.getExhaustion()) && lastMillis + 1 - millis <= config.getMaxBorrowMillis()) {
+                    next = (lastMillis + 1) << SEQUENCE_BITS;
+                    borrowed.increment();
+                } else {
+                    // 等待时钟走到下一毫秒
+                    sequenceWaits.increment();
+                    Thread.yield();
+                    continue;
+                }
+            }
+            if (state.compareAndSet(current, next)) {
+                long time = next >>> SEQUENCE_BITS;
+                if (time > MAX_TIME) {
+                    throw new IllegalStateException("snowflake时间位已用完");
+                }
+                return FLAG | time << (WORKER_BITS + SEQUENCE_BITS) | (long) worker << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /** 还没有启动时租用机器号；已启动但续期一直失败时拒绝生成 */
+    private void ensureLease() {
+        if (!started) {
+            start();
+        }
+        if (System.currentTimeMillis() >= leaseValidUntil) {
+            rejected.increment();
+            throw new IllegalStateException("机器号" + workerId + "的租约已过期，暂停生成id");
+        }
+    }
+
+    /** 机器号、租约剩余时间、序列号等待/借用次数、时钟回拨次数 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workerId", workerId);
+        stats.put("leaseRemainingMillis", started ? Math.max(0, leaseValidUntil - System.currentTimeMillis()) : 0);
+        stats.put("renewals", renewals.sum());
+        stats.put("renewFailures", renewFailures.sum());
+        stats.put("sequenceWaits", sequenceWaits.sum());
+        stats.put("borrowed", borrowed.sum());
+        stats.put("clockBackward", clockBackward.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+}
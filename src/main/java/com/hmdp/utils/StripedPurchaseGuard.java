@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本JVM内的一人一单购买锁：固定数量的 ReentrantLock，按用户id散列到其中一个
+ * 不同用户可能落在同一个分段上互相等待，分段数越多冲突越少；不占用字符串常量池，锁对象数量固定
+ * 只在单节点部署时有效，多节点使用 RedisPurchaseGuard
+ */
+@Component
+public class StripedPurchaseGuard implements PurchaseGuard {
+    public static final String NAME = "local";
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final ContentionStats contention = new ContentionStats();
+
+    public StripedPurchaseGuard(SeckillProperties seckillProperties) {
+        int size = 1;
+        while (size < seckillProperties.getGuard().getStripes()) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Permit tryAcquire(Long userId, long waitMillis) {
+        ReentrantLock lock = stripes[spread(userId) & mask];
+        if (lock.tryLock()) {
+            contention.uncontended();
+            return lock::unlock;
+        }
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = lock.tryLock(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            success = false;
+        }
+        contention.contended(start, success);
+        return success ? lock::unlock : null;
+    }
+
+    private static int spread(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = contention.toMap();
+        stats.put("stripes", stripes.length);
+        return stats;
+    }
+}
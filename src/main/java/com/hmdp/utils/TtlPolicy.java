@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 某个缓存前缀的过期时间策略，防止同一批写入的key在同一时刻过期(缓存雪崩)
+ * 实际TTL = 基础TTL * 热度系数 * (1 + 随机抖动)，再限制在 [minSeconds, maxSeconds] 之内
+ *      随机抖动：在 [-jitterRatio, +jitterRatio] 内均匀分布
+ *      热度系数：adaptive开启时按本节点的近似访问频率计算，从未访问为 coldFactor，
+ *               访问次数达到 hotThreshold 为1，继续增加最高到 hotFactor；关闭时为1
+ * 访问频率用计数草图(count-min sketch)统计，每累计 sampleSize 次访问所有计数减半，只反映最近的热度
+ */
+public class TtlPolicy {
+    private final double jitterRatio;
+    private final long minSeconds;
+    private final long maxSeconds;
+    private final boolean adaptive;
+    private final int hotThreshold;
+    private final double coldFactor;
+    private final double hotFactor;
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 14;
+    private final int[] sketch;
+    private final int sampleSize;
+    private final LongAdder accesses = new LongAdder();
+
+    /** 实际TTL与基础TTL之比的分布：<0.5 / <0.8 / <1.0 / <1.2 / <1.5 / >=1.5 */
+    private static final double[] BUCKET_BOUNDS = {0.5, 0.8, 1.0, 1.2, 1.5};
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder appliedSeconds = new LongAdder();
+    private final LongAccumulator minApplied = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxApplied = new LongAccumulator(Math::max, 0);
+
+    public TtlPolicy(double jitterRatio, long minSeconds, long maxSeconds,
+                     boolean adaptive, int hotThreshold, double coldFactor, double hotFactor) {
+        this.jitterRatio = jitterRatio;
+        this.minSeconds = minSeconds;
+        this.maxSeconds = maxSeconds <= 0 ? Long.MAX_VALUE : maxSeconds;
+        this.adaptive = adaptive;
+        this.hotThreshold = Math.max(1, hotThreshold);
+        this.coldFactor = coldFactor;
+        this.hotFactor = hotFactor;
+        this.sketch = adaptive ? new int[SKETCH_DEPTH * SKETCH_WIDTH] : null;
+        this.sampleSize = SKETCH_WIDTH * 10;
+    }
+
+    /** 记录一次访问，只有adaptive开启时才统计 */
+    public void recordAccess(String key) {
+        if (!adaptive) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = i * SKETCH_WIDTH + (rehash(hash, i) & (SKETCH_WIDTH - 1));
+            // 并发下的计数误差可以接受，不使用原子操作
+            if (sketch[index] < Integer.MAX_VALUE) {
+                sketch[index]++;
+            }
+        }
+        accesses.increment();
+        if (accesses.sum() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private synchronized void reset() {
+        if (accesses.sum() < sampleSize) {
+            return;
+        }
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] >>>= 1;
+        }
+        accesses.reset();
+    }
+
+    private int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            min = Math.min(min, sketch[i * SKETCH_WIDTH + (rehash(hash, i) & (SKETCH_WIDTH - 1))]);
+        }
+        return min;
+    }
+
+    /**
+     * 计算并记录某个key本次写入应使用的TTL(秒)
+     */
+    public long apply(String key, long baseSeconds) {
+        double factor = 1;
+        if (adaptive) {
+            double hotness = (double) frequency(key) / hotThreshold;
+            factor = hotness <= 1
+                    ? coldFactor + (1 - coldFactor) * hotness
+                    : Math.min(hotFactor, 1 + (hotFactor - 1) * (hotness - 1) / hotness);
+        }
+        double jitter = jitterRatio <= 0 ? 0 : ThreadLocalRandom.current().nextDouble(-jitterRatio, jitterRatio);
+        long seconds = Math.round(baseSeconds * factor * (1 + jitter));
+        seconds = Math.max(minSeconds, Math.min(maxSeconds, seconds));
+        seconds = Math.max(1, seconds);
+        record(seconds, baseSeconds);
+        return seconds;
+    }
+
+    private void record(long seconds, long baseSeconds) {
+        double ratio = baseSeconds <= 0 ? 1 : (double) seconds / baseSeconds;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && ratio >= BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        applied.increment();
+        appliedSeconds.add(seconds);
+        minApplied.accumulate(seconds);
+        maxApplied.accumulate(seconds);
+    }
+
+    /** 实际TTL的分布 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long count = applied.sum();
+        stats.put("count", count);
+        stats.put("avgSeconds", count == 0 ? 0 : appliedSeconds.sum() / count);
+        stats.put("minSeconds", count == 0 ? 0 : minApplied.get());
+        stats.put("maxSeconds", maxApplied.get());
+        Map<String, Long> distribution = new LinkedHashMap<>();
+        for (int i = 0; i <= BUCKET_BOUNDS.length; i++) {
+            String name = i < BUCKET_BOUNDS.length ? "<" + BUCKET_BOUNDS[i] : ">=" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+            distribution.put(name, buckets.get(i));
+        }
+        stats.put("ratioToBase", distribution);
+        return stats;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    private static int rehash(int hash, int i) {
+        int h = hash * (0x9E3779B9 + (i << 1));
+        return h ^ (h >>> 15);
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * UserDTO 与登录状态hash(login:token:xxx)之间的转换
+ *      字段：id -> i，nickName -> n，icon -> c；id 为十进制ASCII，字符串为UTF-8
+ *      读取时两种字段名都能识别，写入时由 COMPACT / FULL 决定，滚动发布期间新旧格式可以同时存在
+ */
+public final class UserDTOHashMapping implements RedisHashMapping<UserDTO> {
+    private static final byte[] ID = ascii("id");
+    private static final byte[] NICK_NAME = ascii("nickName");
+    private static final byte[] ICON = ascii("icon");
+    private static final byte[] ID_COMPACT = ascii("i");
+    private static final byte[] NICK_NAME_COMPACT = ascii("n");
+    private static final byte[] ICON_COMPACT = ascii("c");
+
+    // 实例需要在字段名常量之后初始化
+    /** 短字段名，所有节点都升级到能识别短字段名的版本后再使用 */
+    public static final UserDTOHashMapping COMPACT = new UserDTOHashMapping(true);
+    /** 与原 BeanUtil.beanToMap 相同的字段名 */
+    public static final UserDTOHashMapping FULL = new UserDTOHashMapping(false);
+
+    private final byte[] idField;
+    private final byte[] nickNameField;
+    private final byte[] iconField;
+
+    private UserDTOHashMapping(boolean compact) {
+        this.idField = compact ? ID_COMPACT : ID;
+        this.nickNameField = compact ? NICK_NAME_COMPACT : NICK_NAME;
+        this.iconField = compact ? ICON_COMPACT : ICON;
+    }
+
+    @Override
+    public Map<byte[], byte[]> toHash(UserDTO user) {
+        // 最多3个字段，容量4不会扩容
+        Map<byte[], byte[]> hash = new HashMap<>(4);
+        if (user.getId() != null) {
+            hash.put(idField, longToAscii(user.getId()));
+        }
+        if (user.getNickName() != null) {
+            hash.put(nickNameField, user.getNickName().getBytes(StandardCharsets.UTF_8));
+        }
+        if (user.getIcon() != null) {
+            hash.put(iconField, user.getIcon().getBytes(StandardCharsets.UTF_8));
+        }
+        return hash;
+    }
+
+    @Override
+    public UserDTO fromHash(Map<byte[], byte[]> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+            byte[] field = entry.getKey();
+            byte[] value = entry.getValue();
+            if (Arrays.equals(field, ID_COMPACT) || Arrays.equals(field, ID)) {
+                user.setId(asciiToLong(value));
+            } else if (Arrays.equals(field, NICK_NAME_COMPACT) || Arrays.equals(field, NICK_NAME)) {
+                user.setNickName(new String(value, StandardCharsets.UTF_8));
+            } else if (Arrays.equals(field, ICON_COMPACT) || Arrays.equals(field, ICON)) {
+                user.setIcon(new String(value, StandardCharsets.UTF_8));
+            }
+        }
+        return user;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** 与 Long.toString(value).getBytes() 相同，不创建中间字符串 */
+    static byte[] longToAscii(long value) {
+        if (value == Long.MIN_VALUE) {
+            return ascii(Long.toString(value));
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int digits = 1;
+        for (long v = remaining; v >= 10; v /= 10) {
+            digits++;
+        }
+        byte[] bytes = new byte[negative ? digits + 1 : digits];
+        for (int i = bytes.length - 1; i >= (negative ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+
+    /** 与 Long.parseLong(new String(bytes)) 相同，不创建中间字符串 */
+    static long asciiToLong(byte[] bytes) {
+        boolean negative = bytes.length > 0 && bytes[0] == '-';
+        int start = negative ? 1 : 0;
+        // 18位以内不会溢出，更长的交给 Long.parseLong 校验
+        if (bytes.length == start || bytes.length - start > 18) {
+            return Long.parseLong(new String(bytes, StandardCharsets.US_ASCII));
+        }
+        long value = 0;
+        for (int i = start; i < bytes.length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("不是数字: " + new String(bytes, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
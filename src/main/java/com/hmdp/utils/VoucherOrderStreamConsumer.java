@@ -0,0 +1,257 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单消费者：从redis stream(消费者组)中批量读取订单写入数据库
+ * 每批订单在一个事务中写入：每个优惠券一条UPDATE扣减库存，一条多行INSERT写入订单，提交后再XACK
+ * 写入失败的订单留在待确认列表(PEL)中，超过 claimIdleSeconds 未确认的消息(包括其他已宕机节点的)
+ * 由 XPENDING + XCLAIM 转移给当前消费者重新处理，只依赖 redis 5.0 的命令
+ * 数据库库存不足或违反一人一单而没有写入的订单先转入死信stream(stream.orders.dead，带原因)，再确认原消息，
+ * 转入失败时原消息留在待确认列表中，不会丢失
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamConsumer {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "voucher-order-consumer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+    private String consumerName;
+
+    private final long startMillis = System.currentTimeMillis();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+    /** 最近一批中最早的订单从写入stream到写入数据库的延迟 */
+    private volatile long lastLagMillis;
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Math::max, 0);
+
+    @PostConstruct
+    private void init() {
+        if (!seckillProperties.isAsyncOrder()) {
+            return;
+        }
+        consumerName = StrUtil.isNotBlank(seckillProperties.getStream().getConsumerName())
+                ? seckillProperties.getStream().getConsumerName() : defaultConsumerName();
+        createGroup();
+        executor.submit(this::consume);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(seckillProperties.getStream().getBlockMillis() + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private static String defaultConsumerName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "c-" + UUID.randomUUID();
+        }
+    }
+
+    /** 创建消费者组，stream不存在时一起创建，组已存在时忽略 */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")
+                    && !(e.getCause() != null && String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP"))) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume() {
+        SeckillProperties.Stream config = seckillProperties.getStream();
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        Consumer consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
+        StreamReadOptions options = StreamReadOptions.empty()
+                .count(config.getBatchSize()).block(Duration.ofMillis(config.getBlockMillis()));
+        StreamOffset<String> offset = StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed());
+        // 启动时先认领上次(或其他宕机节点)未确认的消息
+        long nextClaim = 0;
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (System.currentTimeMillis() >= nextClaim) {
+                    claimIdle(ops, config);
+                    nextClaim = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getClaimIntervalSeconds());
+                }
+                // read 的所有重载都是泛型可变参数，只传一个 StreamOffset<String>，数组不会被写入其他类型
+                @SuppressWarnings("unchecked")
+                List<MapRecord<String, Object, Object>> records = ops.read(consumer, options, offset);
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                handle(ops, records);
+            } catch (Exception e) {
+                log.error("处理订单stream异常", e);
+                sleepQuietly(1000);
+            }
+        }
+    }
+
+    /** 把空闲超过 claimIdleSeconds 的待确认消息转移给自己处理，每轮最多 batchSize 条，直到处理完 */
+    private void claimIdle(StreamOperations<String, Object, Object> ops, SeckillProperties.Stream config) {
+        Duration minIdle = Duration.ofSeconds(config.getClaimIdleSeconds());
+        while (running) {
+            PendingMessages pending = ops.pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP,
+                    Range.unbounded(), config.getBatchSize());
+            List<RecordId> idle = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    idle.add(message.getId());
+                }
+            }
+            if (idle.isEmpty()) {
+                return;
+            }
+            // StreamOperations 在当前版本没有claim，直接使用连接的 XCLAIM
+            List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                    ((StringRedisConnection) connection).xClaim(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP,
+                            consumerName, minIdle, idle.toArray(new RecordId[0])));
+            // 已被确认或被其他消费者抢先认领的消息不会返回
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            claimed.add(records.size());
+            handle(ops, records);
+        }
+    }
+
+    /** 一批订单一个事务写入数据库，没有写入的订单转入死信stream后确认并删除消息；失败则留在待确认列表中等待重新认领 */
+    private void handle(StreamOperations<String, Object, Object> ops, List<? extends MapRecord<String, ?, ?>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        RecordId[] ids = new RecordId[records.size()];
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, ?, ?> record = records.get(i);
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            ids[i] = record.getId();
+            Long timestamp = record.getId().getTimestamp();
+            if (timestamp != null) {
+                oldest = Math.min(oldest, timestamp);
+            }
+        }
+        Map<Long, String> rejected;
+        try {
+            rejected = voucherOrderService.createVoucherOrders(orders);
+        } catch (Exception e) {
+            failedBatches.increment();
+            log.error("批量写入订单失败，{}条消息等待重新处理", records.size(), e);
+            return;
+        }
+        for (int i = 0; i < orders.size(); i++) {
+            String reason = rejected.get(orders.get(i).getId());
+            if (reason != null) {
+                Map<Object, Object> value = new LinkedHashMap<>(records.get(i).getValue());
+                value.put("reason", reason);
+                value.put("source", ids[i].getValue());
+                ops.add(SECKILL_ORDER_DEAD_KEY, value);
+            }
+        }
+        ops.acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, ids);
+        ops.delete(SECKILL_ORDER_STREAM_KEY, ids);
+        batches.increment();
+        persisted.add(orders.size() - rejected.size());
+        deadLettered.add(rejected.size());
+        maxBatchSize.accumulate(orders.size());
+        if (oldest != Long.MAX_VALUE) {
+            lastLagMillis = Math.max(0, System.currentTimeMillis() - oldest);
+            maxLagMillis.accumulate(lastLagMillis);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** 吞吐量、批大小、积压等指标 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("consumer", consumerName);
+        long persistedCount = persisted.sum();
+        long batchCount = batches.sum();
+        long elapsedSeconds = Math.max(1, (System.currentTimeMillis() - startMillis) / 1000);
+        stats.put("persisted", persistedCount);
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("throughputPerSecond", persistedCount / elapsedSeconds);
+        stats.put("batches", batchCount);
+        stats.put("failedBatches", failedBatches.sum());
+        stats.put("avgBatchSize", batchCount == 0 ? 0 : (persistedCount + deadLettered.sum()) / batchCount);
+        stats.put("maxBatchSize", maxBatchSize.get());
+        stats.put("claimed", claimed.sum());
+        stats.put("lastLagMillis", lastLagMillis);
+        stats.put("maxLagMillis", maxLagMillis.get());
+        try {
+            StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+            stats.put("streamLength", ops.size(SECKILL_ORDER_STREAM_KEY));
+            stats.put("deadLetterLength", ops.size(SECKILL_ORDER_DEAD_KEY));
+            PendingMessagesSummary summary = ops.pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP);
+            stats.put("pending", summary == null ? 0 : summary.getTotalPendingMessages());
+        } catch (Exception e) {
+            log.debug("查询订单stream积压失败", e);
+        }
+        return stats;
+    }
+}
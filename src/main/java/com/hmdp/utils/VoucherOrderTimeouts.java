@@ -0,0 +1,242 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 未支付订单超时取消：redis延时队列(zset，成员为订单id，分数为到期时间)
+ *      入队：订单写入数据库的事务中 ZADD，事务回滚留下的订单id在处理时发现订单不存在直接丢弃
+ *      认领：各工作线程用脚本批量取出到期的订单，分数改为租期结束时间并记录认领者，租期内其他节点不会重复处理
+ *      取消：一个事务中锁定仍未支付的订单，改为已取消，一条UPDATE退回数据库库存；提交后退回redis库存
+ *      完成：只删除仍由自己认领的订单；节点宕机时租期到期，订单重新出现在队列中
+ * 订单状态只在行锁下从未支付改为已取消，重复处理不会重复退回库存；
+ * 数据库提交后、redis退回前宕机时redis库存会少于数据库，由对账修复
+ */
+@Slf4j
+@Component
+public class VoucherOrderTimeouts {
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> DONE_SCRIPT;
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("order_timeout_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+        DONE_SCRIPT = new DefaultRedisScript<>();
+        DONE_SCRIPT.setLocation(new ClassPathResource("order_timeout_done.lua"));
+        DONE_SCRIPT.setResultType(Long.class);
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource("seckill_return.lua"));
+        RETURN_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+    @Resource
+    private SeckillVoucherStates seckillVoucherStates;
+
+    private ExecutorService executor;
+    private volatile boolean running = true;
+    private String nodeName;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder stockReturned = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.OrderTimeout config = seckillProperties.getOrderTimeout();
+        if (!config.isEnabled()) {
+            return;
+        }
+        nodeName = defaultNodeName();
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(config.getWorkers(), r -> {
+            Thread thread = new Thread(r, "order-timeout-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < config.getWorkers(); i++) {
+            String owner = nodeName + "-" + i;
+            executor.submit(() -> poll(owner));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(seckillProperties.getOrderTimeout().getPollMillis() + 5000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String defaultNodeName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        // 同一主机上的多个实例也要区分
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * 订单加入延时队列，在写入订单的事务中调用
+     */
+    public void schedule(Collection<Long> orderIds) {
+        SeckillProperties.OrderTimeout config = seckillProperties.getOrderTimeout();
+        if (!config.isEnabled() || orderIds.isEmpty()) {
+            return;
+        }
+        double due = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(config.getTimeoutMinutes());
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(orderIds.size() * 2);
+        for (Long orderId : orderIds) {
+            tuples.add(new DefaultTypedTuple<>(orderId.toString(), due));
+        }
+        stringRedisTemplate.opsForZSet().add(ORDER_TIMEOUT_KEY, tuples);
+        scheduled.add(orderIds.size());
+    }
+
+    private void poll(String owner) {
+        SeckillProperties.OrderTimeout config = seckillProperties.getOrderTimeout();
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                int handled = pollOnce(owner, config);
+                // 一批取满说明还有到期订单，继续处理
+                if (handled < config.getBatchSize()) {
+                    sleepQuietly(config.getPollMillis());
+                }
+            } catch (Exception e) {
+                failedBatches.increment();
+                log.error("处理超时订单异常", e);
+                sleepQuietly(config.getPollMillis());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int pollOnce(String owner, SeckillProperties.OrderTimeout config) {
+        long now = System.currentTimeMillis();
+        long leaseUntil = now + TimeUnit.SECONDS.toMillis(config.getLeaseSeconds());
+        List<String> members = stringRedisTemplate.execute(CLAIM_SCRIPT, Arrays.asList(ORDER_TIMEOUT_KEY, ORDER_TIMEOUT_LEASE_KEY),
+                String.valueOf(now), String.valueOf(leaseUntil), String.valueOf(config.getBatchSize()), owner);
+        if (members == null || members.isEmpty()) {
+            return 0;
+        }
+        claimed.add(members.size());
+        List<Long> orderIds = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 已支付、已取消或不存在(事务回滚)的订单只从队列中删除
+        List<VoucherOrder> orders = voucherOrderService.cancelTimeoutOrders(orderIds);
+        cancelled.add(orders.size());
+        skipped.add(orderIds.size() - orders.size());
+        if (seckillProperties.isAsyncOrder()) {
+            returnToRedis(orders);
+        }
+        // 通知所有节点清除售罄状态
+        orders.stream().map(VoucherOrder::getVoucherId).distinct().forEach(seckillVoucherStates::publishReset);
+        List<String> args = new ArrayList<>(members.size() + 1);
+        args.add(owner);
+        args.addAll(members);
+        stringRedisTemplate.execute(DONE_SCRIPT, Arrays.asList(ORDER_TIMEOUT_KEY, ORDER_TIMEOUT_LEASE_KEY), args.toArray());
+        return members.size();
+    }
+
+    /** 每个秒杀券一次：退回redis库存并移除下单用户，分段库存由 SeckillStockSegments 按分段退回 */
+    private void returnToRedis(List<VoucherOrder> orders) {
+        Map<Long, List<VoucherOrder>> byVoucher = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        byVoucher.forEach((voucherId, group) -> {
+            Integer segments = seckillStockSegments.segmentsOf(voucherId);
+            if (segments == null) {
+                segments = seckillStockSegments.loadSegments(voucherId);
+            }
+            if (segments != null) {
+                List<Long> userIds = group.stream().map(VoucherOrder::getUserId).collect(Collectors.toList());
+                if (seckillStockSegments.returnStock(voucherId, segments, userIds)) {
+                    stockReturned.add(group.size());
+                }
+                return;
+            }
+            List<String> args = new ArrayList<>(group.size() + 1);
+            args.add(String.valueOf(group.size()));
+            for (VoucherOrder order : group) {
+                args.add(order.getUserId().toString());
+            }
+            Long result = stringRedisTemplate.execute(RETURN_SCRIPT,
+                    Arrays.asList(seckillKey(SECKILL_STOCK_KEY, voucherId), seckillKey(SECKILL_ORDER_KEY, voucherId)),
+                    args.toArray());
+            if (result != null && result == 1) {
+                stockReturned.add(group.size());
+            }
+        });
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** 入队、认领、取消的订单数，队列长度和已到期数量 */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", nodeName);
+        stats.put("scheduled", scheduled.sum());
+        stats.put("claimed", claimed.sum());
+        stats.put("cancelled", cancelled.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("stockReturnedToRedis", stockReturned.sum());
+        stats.put("failedBatches", failedBatches.sum());
+        try {
+            stats.put("queued", stringRedisTemplate.opsForZSet().zCard(ORDER_TIMEOUT_KEY));
+            stats.put("due", stringRedisTemplate.opsForZSet().count(ORDER_TIMEOUT_KEY, 0, System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.debug("查询超时订单队列失败", e);
+        }
+        return stats;
+    }
+}
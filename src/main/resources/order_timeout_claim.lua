@@ -0,0 +1,11 @@
+-- 认领到期的超时订单：取出最多N个到期的订单id，把分数改为租期结束时间并记录认领者
+-- 租期内其他节点看不到这些订单；租期结束仍未完成(节点宕机)则重新到期，由任意节点再次认领
+-- KEYS[1] 延时队列(zset，分数为到期时间)  KEYS[2] 认领记录(hash，订单id -> 认领者)
+-- ARGV[1] 当前时间(毫秒)  ARGV[2] 租期结束时间(毫秒)  ARGV[3] 最大数量  ARGV[4] 认领者
+-- 返回 认领到的订单id列表
+local ids = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[3]))
+for i = 1, #ids do
+    redis.call('zadd', KEYS[1], ARGV[2], ids[i])
+    redis.call('hset', KEYS[2], ids[i], ARGV[4])
+end
+return ids
@@ -0,0 +1,13 @@
+-- 完成超时订单：只删除仍由自己认领的订单，租期已过并被其他节点重新认领的不删除
+-- KEYS[1] 延时队列  KEYS[2] 认领记录
+-- ARGV[1] 认领者  ARGV[2...] 订单id
+-- 返回 删除的数量
+local n = 0
+for i = 2, #ARGV do
+    if (redis.call('hget', KEYS[2], ARGV[i]) == ARGV[1]) then
+        redis.call('zrem', KEYS[1], ARGV[i])
+        redis.call('hdel', KEYS[2], ARGV[i])
+        n = n + 1
+    end
+end
+return n
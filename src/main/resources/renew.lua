@@ -0,0 +1,6 @@
+-- 仍持有锁时续期
+-- KEYS[1] 锁的key  ARGV[1] 当前线程标识  ARGV[2] 新的过期时间(毫秒)
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,32 @@
+-- 秒杀资格判断：时间窗口、库存、一人一单，通过后扣减库存、记录下单用户
+-- KEYS[1] 库存key  KEYS[2] 时间窗口key  KEYS[3] 下单用户集合key，三个key带同一个hash tag {优惠券id}
+-- ARGV[1] 用户id  ARGV[2] 当前时间(毫秒)  ARGV[3] 优惠券id  ARGV[4] 秒杀状态频道
+-- 订单由调用方在成功后写入消息队列(stream不在这张券的slot中)
+-- 库存扣减到0时在状态频道发布 soldout:优惠券id，各节点记录售罄状态后不再请求redis
+-- 返回 0:成功 1:库存不足 2:重复下单 3:未开始 4:已结束 5:redis中没有该秒杀券 6:该秒杀券使用分段库存
+local stock = redis.call('get', KEYS[1])
+local window = redis.call('hmget', KEYS[2], 'begin', 'end', 'segments')
+if (not stock) and window[3] then
+    return 6
+end
+if (not stock) or (not window[1]) or (not window[2]) then
+    return 5
+end
+local now = tonumber(ARGV[2])
+if (now < tonumber(window[1])) then
+    return 3
+end
+if (now > tonumber(window[2])) then
+    return 4
+end
+if (tonumber(stock) <= 0) then
+    return 1
+end
+if (redis.call('sismember', KEYS[3], ARGV[1]) == 1) then
+    return 2
+end
+if (redis.call('incrby', KEYS[1], -1) == 0) then
+    redis.call('publish', ARGV[4], 'soldout:' .. ARGV[3])
+end
+redis.call('sadd', KEYS[3], ARGV[1])
+return 0
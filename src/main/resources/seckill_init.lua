@@ -0,0 +1,15 @@
+-- 将秒杀券写入redis：库存只在不存在时写入(避免覆盖已经扣减过的库存)，时间窗口总是覆盖
+-- KEYS[1] 库存key  KEYS[2] 时间窗口key，两个key带同一个hash tag {优惠券id}
+-- ARGV[1] 库存  ARGV[2] 开始时间(毫秒)  ARGV[3] 结束时间(毫秒)  ARGV[4] 分段数
+-- 分段时只在时间窗口中记录分段数，各分段的库存在不同的slot中，由调用方在此之前写入
+-- 返回 1:写入了库存 0:库存已存在或分段
+redis.call('hmset', KEYS[2], 'begin', ARGV[2], 'end', ARGV[3])
+if (tonumber(ARGV[4]) > 1) then
+    redis.call('hset', KEYS[2], 'segments', ARGV[4])
+    return 0
+end
+if (redis.call('hexists', KEYS[2], 'segments') == 1) then
+    -- 已经按分段写入过，从数据库重新加载时不再写入不分段的库存
+    return 0
+end
+return redis.call('setnx', KEYS[1], ARGV[1])
@@ -0,0 +1,14 @@
+-- 取消订单后退回redis库存，并把用户从下单用户集合中移除(可以重新抢购)
+-- KEYS[1] 库存key  KEYS[2] 下单用户集合key，两个key带同一个hash tag {优惠券id}
+-- 只用于不分段的秒杀券，分段库存的key不在同一个slot中，由 SeckillStockSegments.returnStock 退回
+-- ARGV[1] 退回数量  ARGV[2...] 用户id
+-- 库存key不存在时(还没有加载到redis)不退回，下次秒杀时会从数据库加载
+-- 返回 1:已退回 0:库存key不存在
+for i = 2, #ARGV do
+    redis.call('srem', KEYS[2], ARGV[i])
+end
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], tonumber(ARGV[1]))
+return 1
@@ -0,0 +1,18 @@
+-- 分段库存的秒杀资格判断：一人一单、用户所属分段的库存
+-- KEYS[1] 所属分段的下单用户集合  KEYS[2] 所属分段的库存，两个key带同一个hash tag {优惠券id:分段}
+-- ARGV[1] 用户id
+-- 时间窗口由调用方在本地判断；订单由调用方在成功后写入消息队列
+-- 返回 0:成功 1:所属分段库存不足(已记录下单用户，由调用方从其他分段借用，借用失败时移除) 2:重复下单
+--      5:redis中没有该分段
+local stock = redis.call('get', KEYS[2])
+if (not stock) then
+    return 5
+end
+if (redis.call('sadd', KEYS[1], ARGV[1]) == 0) then
+    return 2
+end
+if (tonumber(stock) <= 0) then
+    return 1
+end
+redis.call('incrby', KEYS[2], -1)
+return 0
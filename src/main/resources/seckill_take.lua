@@ -0,0 +1,11 @@
+-- 从一个分段取走最多N个库存：借用其他分段的库存、再平衡时使用
+-- KEYS[1] 分段库存key
+-- ARGV[1] 最多取走的数量
+-- 返回 实际取走的数量
+local left = tonumber(redis.call('get', KEYS[1]) or '0')
+local n = math.min(left, tonumber(ARGV[1]))
+if (n <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -n)
+return n
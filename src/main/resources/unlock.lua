@@ -0,0 +1,8 @@
+-- 比较锁中的线程标识与当前标识是否一致，一致才释放，并通知等待者
+-- KEYS[1] 锁的key  ARGV[1] 当前线程标识  ARGV[2] 释放通知的频道
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    redis.call('del', KEYS[1])
+    redis.call('publish', ARGV[2], KEYS[1])
+    return 1
+end
+return 0
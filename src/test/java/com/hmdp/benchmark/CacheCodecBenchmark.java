@@ -0,0 +1,109 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逻辑过期缓存的编解码开销对比：原JSON写法(两次toBean) / JsonCacheCodec / BinaryCacheCodec
+ * 运行：在IDE中直接运行main方法，启动时会打印三种格式的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final BinaryCacheCodec binaryCodec = new BinaryCacheCodec();
+    private Shop shop;
+    private LocalDateTime expireTime;
+    private String legacyJson;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setup() {
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                        + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        expireTime = LocalDateTime.now().plusMinutes(30);
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(expireTime);
+        legacyJson = JSONUtil.toJsonStr(redisData);
+        jsonBytes = jsonCodec.encode(shop, expireTime, 120L);
+        binaryBytes = binaryCodec.encode(shop, expireTime, 120L);
+        System.out.printf("%n字节数  原JSON: %d  JsonCacheCodec: %d  BinaryCacheCodec: %d%n",
+                legacyJson.getBytes(StandardCharsets.UTF_8).length, jsonBytes.length, binaryBytes.length);
+    }
+
+    @Benchmark
+    public String legacyJsonEncode() {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(expireTime);
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public Shop legacyJsonDecode() {
+        RedisData redisData = JSONUtil.toBean(legacyJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public byte[] jsonCodecEncode() {
+        return jsonCodec.encode(shop, expireTime, 120L);
+    }
+
+    @Benchmark
+    public RedisData jsonCodecDecode() {
+        return jsonCodec.decodeWithExpire(jsonBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] binaryCodecEncode() {
+        return binaryCodec.encode(shop, expireTime, 120L);
+    }
+
+    @Benchmark
+    public RedisData binaryCodecDecode() {
+        return binaryCodec.decodeWithExpire(binaryBytes, Shop.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
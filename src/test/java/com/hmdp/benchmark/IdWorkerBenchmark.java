@@ -0,0 +1,95 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.IdProperties;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 全局id生成的吞吐量：incr(每个id一次INCR)、segment(号段)、snowflake(本地生成)，单线程和16线程
+ * 需要一个可用的redis：-Dredis.host=127.0.0.1 -Dredis.port=6379 -Dredis.password=
+ * 运行：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class IdWorkerBenchmark {
+    private static final String PREFIX = "benchmark";
+
+    @Param({"incr", "segment", "snowflake"})
+    public String mode;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private SnowflakeIdWorker snowflakeIdWorker;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        configuration.setPassword(RedisPassword.of(System.getProperty("redis.password", "")));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        IdProperties properties = new IdProperties();
+        properties.setMode("snowflake".equals(mode) ? "segment" : mode);
+        if ("snowflake".equals(mode)) {
+            properties.getPrefixModes().put(PREFIX, "snowflake");
+        }
+        snowflakeIdWorker = new SnowflakeIdWorker(redisTemplate, properties);
+        if ("snowflake".equals(mode)) {
+            snowflakeIdWorker.start();
+        }
+        redisIdWorker = new RedisIdWorker(redisTemplate, properties, snowflakeIdWorker);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println(redisIdWorker.stats());
+        redisIdWorker.shutdown();
+        snowflakeIdWorker.shutdown();
+        redisTemplate.delete("icr:" + PREFIX + ":" + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd")));
+        Object workerId = snowflakeIdWorker.stats().get("workerId");
+        if (!Integer.valueOf(-1).equals(workerId)) {
+            redisTemplate.delete(ID_WORKER_KEY + workerId);
+        }
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long singleThread() {
+        return redisIdWorker.nextId(PREFIX);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long sixteenThreads() {
+        return redisIdWorker.nextId(PREFIX);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,126 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SeckillStockSegments;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 分段库存秒杀脚本的吞吐量，分段数 1/2/4/8/16，16个线程同时下单(每次一个新用户)
+ * stockPerSegment 控制每个分段的库存，默认充足时测量正常扣减；用 -p stockPerSegment=1000 等较小的值
+ * 可以测量所属分段扣完后向其他分段借用、直到全部售罄的开销
+ * 与 VoucherOrderServiceImpl 相同：脚本只带所属分段的下单用户集合和库存，扣完时逐个分段借用，成功后再写入stream
+ * 需要一个可用的redis：-Dredis.host=127.0.0.1 -Dredis.port=6379 -Dredis.password=
+ * 集群：-Dredis.cluster=127.0.0.1:7000,127.0.0.1:7001,127.0.0.1:7002
+ * 每个分段带自己的hash tag {id:i}，在集群中分布到不同的分片；单实例上分段只减少同一个key的竞争，脚本仍然串行执行
+ * 运行：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(16)
+@Fork(1)
+public class SegmentedStockBenchmark {
+    private static final Long VOUCHER_ID = 900_000_001L;
+    /** 单独的stream，不影响正在运行的订单消费者 */
+    private static final String STREAM_KEY = seckillKey(SECKILL_ORDER_STREAM_KEY + ":benchmark", VOUCHER_ID);
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int segments;
+
+    @Param({"10000000"})
+    public int stockPerSegment;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private SeckillStockSegments stockSegments;
+    private DefaultRedisScript<Long> segmentScript;
+    private final AtomicLong userIds = new AtomicLong();
+    private final AtomicLong orderIds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String cluster = System.getProperty("redis.cluster");
+        if (cluster != null) {
+            RedisClusterConfiguration configuration = new RedisClusterConfiguration(Arrays.asList(cluster.split(",")));
+            configuration.setPassword(RedisPassword.of(System.getProperty("redis.password", "")));
+            connectionFactory = new LettuceConnectionFactory(configuration);
+        } else {
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                    System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+            configuration.setPassword(RedisPassword.of(System.getProperty("redis.password", "")));
+            connectionFactory = new LettuceConnectionFactory(configuration);
+        }
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        stockSegments = new SeckillStockSegments(redisTemplate);
+        segmentScript = new DefaultRedisScript<>();
+        segmentScript.setLocation(new ClassPathResource("seckill_segment.lua"));
+        segmentScript.setResultType(Long.class);
+        clean();
+        stockSegments.init(VOUCHER_ID, stockPerSegment * segments, segments);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clean();
+        connectionFactory.destroy();
+    }
+
+    /** 集群中各分段不在同一个slot，逐个删除 */
+    private void clean() {
+        for (int i = 0; i < segments; i++) {
+            redisTemplate.delete(SeckillStockSegments.segmentKey(VOUCHER_ID, i));
+            redisTemplate.delete(SeckillStockSegments.buyersKey(VOUCHER_ID, i));
+        }
+        redisTemplate.delete(STREAM_KEY);
+    }
+
+    @Benchmark
+    public Long purchase() {
+        Long userId = userIds.incrementAndGet();
+        int home = SeckillStockSegments.homeSegment(userId, segments);
+        Long result = redisTemplate.execute(segmentScript, SeckillStockSegments.homeKeys(VOUCHER_ID, home), userId.toString());
+        if (result != null && result == 1) {
+            if (stockSegments.borrow(VOUCHER_ID, home, segments) < 0) {
+                redisTemplate.opsForSet().remove(SeckillStockSegments.buyersKey(VOUCHER_ID, home), userId.toString());
+                return 1L;
+            }
+            result = 0L;
+        }
+        if (result != null && result == 0) {
+            Map<String, String> order = new LinkedHashMap<>();
+            order.put("userId", userId.toString());
+            order.put("voucherId", VOUCHER_ID.toString());
+            order.put("id", String.valueOf(orderIds.incrementAndGet()));
+            redisTemplate.opsForStream().add(STREAM_KEY, order);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SegmentedStockBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokens;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * RefreshTokenInterceptor 每个请求的耗时：
+ *      redis：关闭本地缓存，每个请求 HGETALL + PTTL
+ *      near-cache：本地缓存，5秒后过期重新加载
+ *      signed：签名token，只在本地校验
+ * 需要一个可用的redis：-Dredis.host=127.0.0.1 -Dredis.port=6379 -Dredis.password=
+ * 运行：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class SessionInterceptorBenchmark {
+    private static final String TOKEN = "benchmark0000000000000000000000";
+
+    @Param({"redis", "near-cache", "signed"})
+    public String mode;
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer listenerContainer;
+    private StringRedisTemplate redisTemplate;
+    private LoginSessionCache loginSessionCache;
+    private SignedTokens signedTokens;
+    private RefreshTokenInterceptor interceptor;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        configuration.setPassword(RedisPassword.of(System.getProperty("redis.password", "")));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+
+        SessionProperties properties = new SessionProperties();
+        properties.setMode("signed".equals(mode) ? "signed" : "redis");
+        properties.getNearCache().setEnabled("near-cache".equals(mode));
+        properties.getSigned().setActiveKey("k1");
+        properties.getSigned().getKeys().put("k1", "benchmark-signing-key-0123456789abcdef");
+        loginSessionCache = new LoginSessionCache(redisTemplate, properties, listenerContainer);
+        signedTokens = new SignedTokens(redisTemplate, properties, listenerContainer);
+        interceptor = new RefreshTokenInterceptor(loginSessionCache, signedTokens);
+
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_benchmark");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        String token;
+        if ("signed".equals(mode)) {
+            token = signedTokens.issue(user);
+        } else {
+            token = TOKEN;
+            loginSessionCache.save(token, user);
+        }
+        request = new MockHttpServletRequest();
+        request.addHeader("authorization", token);
+        response = new MockHttpServletResponse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("signed".equals(mode) ? signedTokens.stats() : loginSessionCache.stats());
+        redisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        listenerContainer.destroy();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public boolean preHandle() throws Exception {
+        boolean result = interceptor.preHandle(request, response, null);
+        interceptor.afterCompletion(request, response, null, null);
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SessionInterceptorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RedisHashMapping;
+import com.hmdp.utils.UserDTOHashMapping;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * 登录状态hash与UserDTO的转换开销，包括key和字段的字节数组，不访问redis
+ *      legacy：BeanUtil.beanToMap / fillBeanWithMap，再经过 StringRedisSerializer(与 opsForHash 相同)
+ *      full/compact：UserDTOHashMapping.FULL(默认，完整字段名) / COMPACT(hmdp.session.compact-hash=true，单字节字段名)
+ *                    直接读写字节数组，字段名是常量数组，两种格式每次调用分配的字节数相同
+ * 运行：在IDE中直接运行main方法，每次调用分配的字节数见 gc.alloc.rate.norm
+ * 参考结果(JDK 17.0.9，-prof gc，预热3x2s，测量5x2s，1个fork，单核)：
+ * <pre>
+ * Benchmark      ns/op          B/op
+ * legacyWrite    713.4 ±  67.2  1376
+ * fullWrite      141.1 ±  77.1   336
+ * compactWrite   133.6 ±  36.4   336
+ * legacyRead     977.1 ± 303.3  1408
+ * fullRead       152.3 ± 125.8   232
+ * compactRead    145.4 ±  86.5   232
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserHashMappingBenchmark {
+    private static final String TOKEN = "4f1c2d3e5a6b7c8d9e0f1a2b3c4d5e6f";
+
+    private final StringRedisSerializer serializer = StringRedisSerializer.UTF_8;
+    private UserDTO user;
+    private Map<byte[], byte[]> fullHash;
+    private Map<byte[], byte[]> compactHash;
+
+    @Setup
+    public void setup() {
+        user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_ab3kd9xq2w");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        fullHash = UserDTOHashMapping.FULL.toHash(user);
+        compactHash = UserDTOHashMapping.COMPACT.toHash(user);
+    }
+
+    @Benchmark
+    public Object legacyWrite() {
+        byte[] key = serializer.serialize(LOGIN_USER_KEY + TOKEN);
+        Map<String, Object> userMap = BeanUtil.beanToMap(user, new HashMap<>(),
+                CopyOptions.create().
+                        setIgnoreNullValue(true).
+                        setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+        Map<byte[], byte[]> hash = new LinkedHashMap<>(userMap.size());
+        userMap.forEach((field, value) -> hash.put(serializer.serialize(field), serializer.serialize((String) value)));
+        return key.length + hash.size();
+    }
+
+    @Benchmark
+    public Object fullWrite() {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, TOKEN);
+        return key.length + UserDTOHashMapping.FULL.toHash(user).size();
+    }
+
+    @Benchmark
+    public Object compactWrite() {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, TOKEN);
+        return key.length + UserDTOHashMapping.COMPACT.toHash(user).size();
+    }
+
+    @Benchmark
+    public UserDTO legacyRead() {
+        byte[] key = serializer.serialize(LOGIN_USER_KEY + TOKEN);
+        Map<Object, Object> userMap = new LinkedHashMap<>(fullHash.size());
+        fullHash.forEach((field, value) -> userMap.put(serializer.deserialize(field), serializer.deserialize(value)));
+        return key.length == 0 ? null : BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO fullRead() {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, TOKEN);
+        return key.length == 0 ? null : UserDTOHashMapping.FULL.fromHash(fullHash);
+    }
+
+    @Benchmark
+    public UserDTO compactRead() {
+        byte[] key = RedisHashMapping.key(LOGIN_USER_KEY, TOKEN);
+        return key.length == 0 ? null : UserDTOHashMapping.COMPACT.fromHash(compactHash);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(UserHashMappingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmdp.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测用的本地redis：在随机端口上启动一个不持久化的 redis-server 进程，测试结束后关闭
+ * 秒杀脚本用到了 stream 和 XCLAIM，需要 redis 5.0 及以上
+ *      -Dloadtest.redis-server=/path/to/redis-server  指定可执行文件，默认从PATH中查找
+ */
+public class EmbeddedRedisServer {
+    private final int port;
+    private Process process;
+
+    public EmbeddedRedisServer() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void start() throws IOException, InterruptedException {
+        String executable = System.getProperty("loadtest.redis-server", "redis-server");
+        process = new ProcessBuilder(executable, "--port", String.valueOf(port),
+                "--bind", "127.0.0.1", "--save", "", "--appendonly", "no")
+                .redirectErrorStream(true)
+                .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "loadtest-redis-" + port + ".log"))
+                .start();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("redis-server 启动失败，退出码：" + process.exitValue());
+            }
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        stop();
+        throw new IllegalStateException("redis-server 10秒内没有开始监听端口 " + port);
+    }
+
+    public void stop() {
+        if (process != null) {
+            process.destroy();
+            try {
+                process.waitFor(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            process.destroyForcibly();
+        }
+    }
+}
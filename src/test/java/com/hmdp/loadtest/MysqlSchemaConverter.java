@@ -0,0 +1,56 @@
+package com.hmdp.loadtest;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 把 db/hmdp.sql 中的建表语句转换成 H2(MODE=MySQL) 能执行的语句，只保留指定的表，不导入数据
+ * 去掉反引号、字符集、排序规则、注释、UNSIGNED/ZEROFILL、ON UPDATE、索引方法、普通索引和表选项
+ */
+public class MysqlSchemaConverter {
+    private static final Pattern CREATE_TABLE = Pattern.compile("CREATE TABLE `(\\w+)`.*?;\\s*$",
+            Pattern.DOTALL | Pattern.MULTILINE);
+
+    public static String convert(String location, String... tables) throws IOException {
+        String sql;
+        try (InputStream in = new ClassPathResource(location).getInputStream()) {
+            sql = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+        Set<String> wanted = new HashSet<>(Arrays.asList(tables));
+        StringBuilder out = new StringBuilder();
+        Matcher matcher = CREATE_TABLE.matcher(sql);
+        while (matcher.find()) {
+            if (wanted.remove(matcher.group(1))) {
+                out.append(convertCreateTable(matcher.group())).append(";\n");
+            }
+        }
+        if (!wanted.isEmpty()) {
+            throw new IllegalStateException(location + " 中没有这些表：" + wanted);
+        }
+        return out.toString();
+    }
+
+    static String convertCreateTable(String statement) {
+        String sql = statement.replaceAll("COMMENT\\s*=?\\s*'(?:[^'\\\\]|\\\\.)*'", "");
+        sql = sql.replace("`", "");
+        sql = sql.replaceAll("CHARACTER SET \\w+", "");
+        sql = sql.replaceAll("COLLATE \\w+", "");
+        sql = sql.replaceAll("\\s+(UNSIGNED|ZEROFILL)", "");
+        sql = sql.replaceAll("ON UPDATE CURRENT_TIMESTAMP", "");
+        sql = sql.replaceAll("'0000-00-00 00:00:00'", "CURRENT_TIMESTAMP");
+        sql = sql.replaceAll("\\s+USING BTREE", "");
+        sql = sql.replaceAll(",\\s*UNIQUE INDEX \\w+\\s*\\(", ",\n  UNIQUE (");
+        sql = sql.replaceAll(",\\s*INDEX \\w+\\s*\\([^)]*\\)", "");
+        // 去掉右括号之后的表选项
+        return sql.substring(0, sql.lastIndexOf(')') + 1);
+    }
+}
@@ -0,0 +1,254 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockSegments;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 秒杀端到端压测：启动完整应用，redis 使用本地临时进程(EmbeddedRedisServer)，数据库使用按 hmdp.sql 建表的 H2 内存库
+ * 大量模拟用户同时通过HTTP请求 POST /voucher-order/seckill/{id}，每个用户请求多次，
+ * 输出吞吐量和延迟分位数，并校验：没有超卖、每个用户最多一个订单、redis与数据库的库存一致
+ * 默认不执行，运行方式：
+ *      mvn test -Dtest=SeckillLoadTest -Dloadtest=true -Dloadtest.users=5000 -Dloadtest.stock=1000
+ * 参数：loadtest.users 用户数  loadtest.stock 库存  loadtest.requests-per-user 每个用户的请求数  loadtest.threads 并发线程数
+ *      loadtest.segments 库存分段数(默认1不分段)  loadtest.redis-server redis-server可执行文件
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class SeckillLoadTest {
+    private static final int USERS = Integer.getInteger("loadtest.users", 5000);
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 1000);
+    private static final int REQUESTS_PER_USER = Integer.getInteger("loadtest.requests-per-user", 2);
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 500);
+    private static final int SEGMENTS = Integer.getInteger("loadtest.segments", 1);
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    private static EmbeddedRedisServer redis;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) throws IOException, InterruptedException {
+        redis = new EmbeddedRedisServer();
+        redis.start();
+        File schema = File.createTempFile("hmdp-schema", ".sql");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), MysqlSchemaConverter.convert("db/hmdp.sql",
+                "tb_voucher", "tb_seckill_voucher", "tb_voucher_order", "tb_user", "tb_shop", "tb_shop_type")
+                .getBytes(StandardCharsets.UTF_8));
+        String schemaPath = schema.getAbsolutePath().replace('\\', '/');
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", redis::getPort);
+        registry.add("spring.redis.password", () -> "");
+        registry.add("spring.datasource.driver-class-name", () -> "org.h2.Driver");
+        registry.add("spring.datasource.url", () -> "jdbc:h2:mem:hmdp;MODE=MySQL;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM '" + schemaPath + "'");
+        registry.add("spring.datasource.username", () -> "sa");
+        registry.add("spring.datasource.password", () -> "");
+        registry.add("spring.datasource.hikari.maximum-pool-size", () -> "50");
+        registry.add("server.tomcat.threads.max", () -> "400");
+        // HttpURLConnection 默认每个地址只保持5个长连接
+        System.setProperty("http.maxConnections", String.valueOf(THREADS));
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    @Test
+    void seckill() throws InterruptedException {
+        Long voucherId = createVoucher();
+        List<String> tokens = createUsers();
+        RestTemplate restTemplate = new RestTemplate(new SimpleClientHttpRequestFactory());
+        String url = "http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId;
+
+        int total = USERS * REQUESTS_PER_USER;
+        long[] latencies = new long[total];
+        AtomicInteger index = new AtomicInteger();
+        LongAdder succeeded = new LongAdder();
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        // 用户id -> 成功的次数
+        Map<Long, AtomicInteger> successByUser = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(total);
+        for (int round = 0; round < REQUESTS_PER_USER; round++) {
+            for (int i = 0; i < USERS; i++) {
+                long userId = i + 1;
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("authorization", tokens.get(i));
+                HttpEntity<Void> request = new HttpEntity<>(headers);
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        long begin = System.nanoTime();
+                        Result result = restTemplate.postForObject(url, request, Result.class);
+                        latencies[index.getAndIncrement()] = System.nanoTime() - begin;
+                        if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                            succeeded.increment();
+                            successByUser.computeIfAbsent(userId, k -> new AtomicInteger()).incrementAndGet();
+                        } else {
+                            String reason = result == null ? "空响应" : result.getErrorMsg();
+                            failures.computeIfAbsent(reason, k -> new LongAdder()).increment();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        failures.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - begin;
+        executor.shutdown();
+
+        report(latencies, index.get(), elapsedNanos, succeeded.sum(), failures);
+
+        // 等待订单全部写入数据库
+        long orders = waitForOrders(voucherId, succeeded.sum());
+        Integer dbStock = seckillVoucherService.getById(voucherId).getStock();
+        String redisStock = SEGMENTS > 1 ? String.valueOf(seckillStockSegments.remaining(voucherId, SEGMENTS))
+                : stringRedisTemplate.opsForValue().get(seckillKey(SECKILL_STOCK_KEY, voucherId));
+        long distinctUsers = voucherOrderService.query().select("DISTINCT user_id").eq("voucher_id", voucherId).count();
+        System.out.printf("订单数：%d  下单用户数：%d  数据库库存：%d  redis库存：%s%n", orders, distinctUsers, dbStock, redisStock);
+
+        assertTrue(succeeded.sum() <= STOCK, "成功数超过库存");
+        assertTrue(successByUser.values().stream().allMatch(count -> count.get() == 1), "同一用户成功多次");
+        assertEquals(succeeded.sum(), orders, "数据库订单数与成功数不一致");
+        assertEquals(orders, distinctUsers, "同一用户有多个订单");
+        assertEquals(STOCK - orders, dbStock.longValue(), "数据库库存与订单数不一致");
+        assertTrue(dbStock >= 0, "数据库库存为负");
+        assertEquals(String.valueOf(STOCK - succeeded.sum()), redisStock, "redis库存与成功数不一致");
+    }
+
+    private Long createVoucher() {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setStockSegments(SEGMENTS);
+        voucher.setBeginTime(LocalDateTime.now().minusSeconds(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /** 直接在redis中写入登录状态，用户id为 1..USERS */
+    private List<String> createUsers() {
+        List<String> tokens = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            tokens.add(UUID.randomUUID().toString(true));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < USERS; i++) {
+                String key = LOGIN_USER_KEY + tokens.get(i);
+                Map<String, String> user = new TreeMap<>();
+                user.put("id", String.valueOf(i + 1));
+                user.put("nickName", "user_" + (i + 1));
+                user.put("icon", "");
+                stringConnection.hMSet(key, user);
+                stringConnection.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    private long waitForOrders(Long voucherId, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DRAIN_TIMEOUT_SECONDS);
+        long count;
+        do {
+            count = voucherOrderService.query().eq("voucher_id", voucherId).count();
+            if (count >= expected) {
+                break;
+            }
+            Thread.sleep(200);
+        } while (System.currentTimeMillis() < deadline);
+        return count;
+    }
+
+    private static void report(long[] latencies, int count, long elapsedNanos, long succeeded, Map<String, LongAdder> failures) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n===== 秒杀压测 =====%n");
+        System.out.printf("用户数：%d  每用户请求：%d  库存：%d  并发线程：%d%n", USERS, REQUESTS_PER_USER, STOCK, THREADS);
+        System.out.printf("请求数：%d  耗时：%.2fs  吞吐量：%.0f req/s%n", count, seconds, count / seconds);
+        System.out.printf("延迟(ms)  p50=%.2f  p90=%.2f  p99=%.2f  p99.9=%.2f  max=%.2f%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), count == 0 ? 0 : sorted[count - 1] / 1e6);
+        System.out.printf("成功：%d%n", succeeded);
+        failures.forEach((reason, n) -> System.out.printf("失败[%s]：%d%n", reason, n.sum()));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+}
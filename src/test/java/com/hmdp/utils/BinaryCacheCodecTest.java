@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BinaryCacheCodec：各实体往返编解码、逻辑过期头部、MAGIC/版本/类型校验
+ */
+class BinaryCacheCodecTest {
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/a.jpg,https://qcloud.dpfile.com/pc/b.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000));
+    }
+
+    @Test
+    void shopRoundTrip() {
+        Shop shop = shop();
+        byte[] bytes = codec.encode(shop, null, null);
+
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void nullFieldsRoundTrip() {
+        // 只有部分字段，其余为null，解码后仍为null
+        Shop shop = new Shop().setId(-5L).setName("").setDistance(0.0);
+        assertEquals(shop, codec.decode(codec.encode(shop, null, null), Shop.class));
+
+        UserDTO user = new UserDTO();
+        user.setId(Long.MAX_VALUE);
+        user.setNickName("用户_ab3kd9");
+        UserDTO decoded = codec.decode(codec.encode(user, null, null), UserDTO.class);
+        assertEquals(Long.MAX_VALUE, decoded.getId());
+        assertEquals("用户_ab3kd9", decoded.getNickName());
+        assertNull(decoded.getIcon());
+    }
+
+    @Test
+    void voucherRoundTrip() {
+        Voucher voucher = new Voucher()
+                .setId(2L)
+                .setShopId(1L)
+                .setTitle("100元代金券")
+                .setSubTitle("周一至周五均可使用")
+                .setRules("全场通用\\n无需预约")
+                .setPayValue(8000L)
+                .setActualValue(10000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(100)
+                .setBeginTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17))
+                .setEndTime(LocalDateTime.of(2022, 1, 26, 23, 9, 4));
+        assertEquals(voucher, codec.decode(codec.encode(voucher, null, null), Voucher.class));
+    }
+
+    @Test
+    void logicalExpireHeader() {
+        LocalDateTime expireTime = LocalDateTime.of(2022, 1, 13, 17, 32, 19, 456_000_000);
+        byte[] bytes = codec.encode(shop(), expireTime, 37L);
+
+        RedisData redisData = codec.decodeWithExpire(bytes, Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(37L, redisData.getRebuildMillis());
+        assertEquals(shop(), redisData.getData());
+
+        // 普通缓存：过期时间和重建耗时都为空
+        redisData = codec.decodeWithExpire(codec.encode(shop(), null, null), Shop.class);
+        assertNull(redisData.getExpireTime());
+        assertNull(redisData.getRebuildMillis());
+    }
+
+    @Test
+    void rejectsJsonAndShortInput() {
+        byte[] json = "{\"id\":1,\"name\":\"103茶餐厅\"}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(codec.canDecode(json));
+        assertFalse(codec.canDecode(new byte[]{BinaryCacheCodec.MAGIC, BinaryCacheCodec.VERSION}));
+        assertThrows(IllegalStateException.class, () -> codec.decode(json, Shop.class));
+        assertThrows(IllegalStateException.class, () -> codec.decodeWithExpire(json, Shop.class));
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = codec.encode(shop(), null, null);
+        bytes[1] = BinaryCacheCodec.VERSION + 1;
+
+        assertTrue(codec.canDecode(bytes));
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, Shop.class));
+        assertThrows(IllegalStateException.class, () -> codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void rejectsTypeMismatch() {
+        byte[] bytes = codec.encode(shop(), null, null);
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, Voucher.class));
+
+        bytes[2] = (byte) 200;
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void rejectsUnsupportedType() {
+        assertTrue(codec.supports(Shop.class));
+        assertFalse(codec.supports(String.class));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode("shop", null, null));
+    }
+}
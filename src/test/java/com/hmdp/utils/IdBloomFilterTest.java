@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * IdBloomFilter：不漏判、误判率、并发CAS置位不丢位
+ */
+class IdBloomFilterTest {
+
+    @Test
+    void containsEveryPutId() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (long id = 1; id <= 10000; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= 10000; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        assertEquals(10000, filter.getInsertions());
+    }
+
+    @Test
+    void sameIdAcrossTypes() {
+        // 数据库中的Long与广播消息中的String是同一个id
+        IdBloomFilter filter = new IdBloomFilter(100, 0.01);
+        filter.put(42L);
+        filter.put("43");
+        assertTrue(filter.mightContain("42"));
+        assertTrue(filter.mightContain(43L));
+    }
+
+    @Test
+    void falsePositiveRateNearConfigured() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (long id = 1; id <= 10000; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        for (long id = 1_000_000; id < 1_100_000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        // 期望1%，留出余量
+        assertTrue(falsePositives < 2000, "误判数: " + falsePositives);
+        assertEquals(0.01, filter.expectedFpp(), 0.005);
+    }
+
+    @Test
+    void sizing() {
+        IdBloomFilter filter = new IdBloomFilter(1_000_000, 0.01);
+        // m = -n*ln(p)/(ln2)^2 ≈ 9.59M 位，k ≈ 7
+        assertEquals(9_585_088, filter.getBitSize(), 64);
+        assertEquals(7, filter.getNumHashFunctions());
+        assertEquals(filter.getBitSize() / 8, filter.getMemoryBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> new IdBloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new IdBloomFilter(100, 1));
+        assertNotNull(new IdBloomFilter(0, 0.01));
+    }
+
+    @Test
+    void concurrentPutsKeepAllBits() throws Exception {
+        // 位数组很小，多个线程频繁在同一个long上置位，CAS失败重试不能丢位
+        IdBloomFilter filter = new IdBloomFilter(2000, 0.01);
+        int threads = 8;
+        int perThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int base = t * perThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        filter.put((long) (base + i));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (long id = 0; id < threads * perThread; id++) {
+            assertTrue(filter.mightContain(id), "丢失: " + id);
+        }
+        assertEquals(threads * perThread, filter.getInsertions());
+    }
+}
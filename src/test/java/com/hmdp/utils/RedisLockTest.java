@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASE_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * RedisLock.awaitUnlock：释放通知、超时、锁过期没有通知时不残留等待者
+ */
+class RedisLockTest {
+    private static final String KEY = "lock:shop:1";
+
+    private StringRedisTemplate redisTemplate;
+    private RedisLock redisLock;
+    private MessageListener listener;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        RedisMessageListenerContainer listenerContainer = mock(RedisMessageListenerContainer.class);
+        redisLock = new RedisLock(redisTemplate, listenerContainer);
+        ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+        verify(listenerContainer).addMessageListener(captor.capture(), any(Topic.class));
+        listener = captor.getValue();
+    }
+
+    private void publishRelease(String key) {
+        listener.onMessage(new DefaultMessage(LOCK_RELEASE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                key.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    /** 等待直到有线程注册为等待者 */
+    private void awaitWaiting(int keys) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (redisLock.waitingKeys() != keys && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(keys, redisLock.waitingKeys());
+    }
+
+    @Test
+    void returnsImmediatelyWhenNotLocked() {
+        when(redisTemplate.hasKey(KEY)).thenReturn(false);
+        assertTrue(redisLock.awaitUnlock(KEY, 1000));
+        assertEquals(0, redisLock.waitingKeys());
+    }
+
+    @Test
+    void timeoutRemovesWaiter() {
+        // 锁过期但没有广播
+        when(redisTemplate.hasKey(KEY)).thenReturn(true);
+        assertFalse(redisLock.awaitUnlock(KEY, 20));
+        assertEquals(0, redisLock.waitingKeys());
+    }
+
+    @Test
+    void releaseWakesWaiter() throws Exception {
+        when(redisTemplate.hasKey(KEY)).thenReturn(true);
+        CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(() -> redisLock.awaitUnlock(KEY, 10_000));
+        awaitWaiting(1);
+
+        publishRelease(KEY);
+
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, redisLock.waitingKeys());
+    }
+
+    @Test
+    void lastWaiterRemovesEntry() throws Exception {
+        when(redisTemplate.hasKey(KEY)).thenReturn(true);
+        CompletableFuture<Boolean> longWait = CompletableFuture.supplyAsync(() -> redisLock.awaitUnlock(KEY, 10_000));
+        awaitWaiting(1);
+
+        // 另一个等待者超时，仍在等待的线程还能收到通知
+        assertFalse(redisLock.awaitUnlock(KEY, 20));
+        assertEquals(1, redisLock.waitingKeys());
+
+        publishRelease(KEY);
+        assertTrue(longWait.get(5, TimeUnit.SECONDS));
+        assertEquals(0, redisLock.waitingKeys());
+
+        // 通知之后新的等待者使用新的future
+        assertFalse(redisLock.awaitUnlock(KEY, 20));
+        assertEquals(0, redisLock.waitingKeys());
+    }
+}
@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * SignedTokens：签发、校验、篡改、过期、密钥轮换、按会话吊销，redis 使用mock
+ */
+class SignedTokensTest {
+    private static final String K1 = "test-signing-key-k1-0123456789abcdef";
+    private static final String K2 = "test-signing-key-k2-0123456789abcdef";
+
+    private StringRedisTemplate redisTemplate;
+    private ZSetOperations<String, String> zSetOperations;
+    private RedisMessageListenerContainer listenerContainer;
+    private UserDTO user;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        zSetOperations = mock(ZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        listenerContainer = mock(RedisMessageListenerContainer.class);
+        user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("用户_ab3kd9");
+        user.setIcon(null);
+    }
+
+    private static SessionProperties properties(String mode, String activeKey, String... keys) {
+        SessionProperties properties = new SessionProperties();
+        properties.setMode(mode);
+        properties.getSigned().setActiveKey(activeKey);
+        for (int i = 0; i < keys.length; i += 2) {
+            properties.getSigned().getKeys().put(keys[i], keys[i + 1]);
+        }
+        return properties;
+    }
+
+    private SignedTokens signedTokens(SessionProperties properties) {
+        return new SignedTokens(redisTemplate, properties, listenerContainer);
+    }
+
+    @Test
+    void issueAndVerify() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user);
+
+        assertTrue(token.startsWith("s.k1."));
+        assertTrue(tokens.accepts(token));
+        SignedTokens.Claims claims = tokens.verify(token);
+        assertNotNull(claims);
+        assertEquals(1010L, claims.getUser().getId());
+        assertEquals("用户_ab3kd9", claims.getUser().getNickName());
+        assertNull(claims.getUser().getIcon());
+        assertTrue(claims.getExpireAtMillis() > System.currentTimeMillis());
+        // 还有完整的有效期，不需要续期
+        assertNull(tokens.renewIfNeeded(claims));
+    }
+
+    @Test
+    void rejectsTamperedToken() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user);
+        String[] parts = token.split("\\.");
+
+        // 改写载荷中的用户id，签名不变
+        byte[] payload = Base64.getUrlDecoder().decode(parts[2]);
+        payload[1 + 8 + 8 + 7] ^= 1;
+        String forged = parts[0] + "." + parts[1] + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(payload)
+                + "." + parts[3];
+        assertNull(tokens.verify(forged));
+
+        // 改写签名
+        char last = parts[3].charAt(0);
+        String badSignature = parts[0] + "." + parts[1] + "." + parts[2] + "." + (last == 'A' ? 'B' : 'A') + parts[3].substring(1);
+        assertNull(tokens.verify(badSignature));
+
+        // 用其他密钥签名
+        SignedTokens other = signedTokens(properties("signed", "k1", "k1", K2));
+        assertNull(tokens.verify(other.issue(user)));
+
+        assertNull(tokens.verify("s.k1"));
+        assertNull(tokens.verify("s.k1.!!!.!!!"));
+        assertNull(tokens.verify("s.k9." + parts[2] + "." + parts[3]));
+        assertEquals(1L, tokens.stats().get("unknownKey"));
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user, 1L, System.currentTimeMillis() - 1000);
+        assertNull(tokens.verify(token));
+        assertEquals(1L, tokens.stats().get("expired"));
+    }
+
+    @Test
+    void renewKeepsSession() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user, 42L, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        SignedTokens.Claims claims = tokens.verify(token);
+
+        String renewed = tokens.renewIfNeeded(claims);
+        assertNotNull(renewed);
+        SignedTokens.Claims renewedClaims = tokens.verify(renewed);
+        assertEquals(42L, renewedClaims.getSessionId());
+        assertTrue(renewedClaims.getExpireAtMillis() > claims.getExpireAtMillis());
+    }
+
+    @Test
+    void keyRotation() {
+        String oldToken = signedTokens(properties("signed", "k1", "k1", K1)).issue(user);
+
+        // 加入k2并切换，k1签发的token仍然有效
+        SignedTokens rotated = signedTokens(properties("signed", "k2", "k1", K1, "k2", K2));
+        assertNotNull(rotated.verify(oldToken));
+        String newToken = rotated.issue(user);
+        assertTrue(newToken.startsWith("s.k2."));
+
+        // 删除k1后旧token失效
+        SignedTokens retired = signedTokens(properties("signed", "k2", "k2", K2));
+        assertNull(retired.verify(oldToken));
+        assertNotNull(retired.verify(newToken));
+    }
+
+    @Test
+    void revokeDeniesWholeSession() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user, 7L, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        String renewed = tokens.renewIfNeeded(tokens.verify(token));
+        String otherSession = tokens.issue(user);
+
+        tokens.revoke(token);
+
+        assertNull(tokens.verify(token));
+        assertNull(tokens.verify(renewed));
+        assertNotNull(tokens.verify(otherSession));
+        verify(zSetOperations).add(eq(LOGIN_REVOKED_KEY), eq("7"), anyDouble());
+        verify(redisTemplate).convertAndSend(eq(LOGIN_REVOKED_CHANNEL), startsWith("7:"));
+    }
+
+    @Test
+    void revokeReplicatesToOtherNodes() {
+        SessionProperties properties = properties("signed", "k1", "k1", K1);
+        SignedTokens node = signedTokens(properties);
+        ArgumentCaptor<MessageListener> listener = ArgumentCaptor.forClass(MessageListener.class);
+        verify(listenerContainer).addMessageListener(listener.capture(), any(Topic.class));
+        String token = node.issue(user, 9L, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(60));
+        assertNotNull(node.verify(token));
+
+        long until = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(60);
+        listener.getValue().onMessage(new DefaultMessage(LOGIN_REVOKED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                ("9:" + until).getBytes(StandardCharsets.UTF_8)), null);
+        assertNull(node.verify(token));
+    }
+
+    @Test
+    void redisModeRejectsSignedTokens() {
+        String token = signedTokens(properties("signed", "k1", "k1", K1)).issue(user);
+
+        // redis 模式下即使配置了同一个密钥也不接受签名token，也不能签发
+        SignedTokens tokens = signedTokens(properties("redis", "k1", "k1", K1));
+        assertFalse(tokens.accepts(token));
+        assertNull(tokens.verify(token));
+        assertThrows(IllegalStateException.class, () -> tokens.issue(user));
+        tokens.syncDenied();
+        verifyNoInteractions(zSetOperations);
+    }
+
+    @Test
+    void signedModeRequiresActiveKey() {
+        assertThrows(IllegalStateException.class, () -> signedTokens(properties("signed", null)));
+        assertThrows(IllegalStateException.class, () -> signedTokens(properties("signed", "k2", "k1", K1)));
+        assertThrows(IllegalStateException.class, () -> signedTokens(properties("signed", "k1", "k1", "too-short")));
+        // redis 模式不需要密钥
+        assertNotNull(signedTokens(properties("redis", null)));
+    }
+
+    @Test
+    void syncDeniedLoadsFromRedis() {
+        SignedTokens tokens = signedTokens(properties("signed", "k1", "k1", K1));
+        String token = tokens.issue(user, 11L, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(60));
+        long until = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(60);
+        when(zSetOperations.rangeByScoreWithScores(eq(LOGIN_REVOKED_KEY), anyDouble(), anyDouble()))
+                .thenReturn(Collections.singleton(new DefaultTypedTuple<>("11", (double) until)));
+
+        tokens.syncDenied();
+
+        assertNull(tokens.verify(token));
+        verify(zSetOperations).removeRangeByScore(eq(LOGIN_REVOKED_KEY), anyDouble(), anyDouble());
+        verify(redisTemplate, never()).convertAndSend(anyString(), any());
+    }
+}
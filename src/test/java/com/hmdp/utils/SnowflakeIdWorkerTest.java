@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * SnowflakeIdWorker：id结构、单调递增、时钟回拨、序列号用完时的等待/借用，redis使用mock
+ * 时钟回拨和序列号用完通过直接设置上次生成的 毫秒+序列号 模拟
+ */
+class SnowflakeIdWorkerTest {
+    private static final long EPOCH_MILLIS = 1640995200000L;
+    private static final long SEQUENCE_MASK = (1L << 12) - 1;
+
+    private StringRedisTemplate redisTemplate;
+    private IdProperties properties;
+    private SnowflakeIdWorker worker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        properties = new IdProperties();
+        properties.getSnowflake().setMaxBorrowMillis(5);
+        properties.getSnowflake().setMaxBackwardMillis(100);
+        worker = new SnowflakeIdWorker(redisTemplate, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        worker.shutdown();
+    }
+
+    private static long timeOf(long id) {
+        return (id >>> 22) & ((1L << 40) - 1);
+    }
+
+    private static long sequenceOf(long id) {
+        return id & SEQUENCE_MASK;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() - EPOCH_MILLIS;
+    }
+
+    /** 设置上次生成的 毫秒 + 序列号 */
+    private void lastIssued(long millis, long sequence) throws Exception {
+        Field field = SnowflakeIdWorker.class.getDeclaredField("state");
+        field.setAccessible(true);
+        ((AtomicLong) field.get(worker)).set(millis << 12 | sequence);
+    }
+
+    @Test
+    void idLayout() {
+        long before = now();
+        long id = worker.nextId();
+
+        assertTrue(id > 0);
+        assertEquals(1, id >>> 62);
+        assertTrue(timeOf(id) >= before && timeOf(id) <= now());
+        assertEquals(worker.stats().get("workerId"), (int) ((id >>> 12) & 1023));
+        // 第一次生成时才租用机器号
+        verify(redisTemplate.opsForValue()).setIfAbsent(startsWith(RedisConstants.ID_WORKER_KEY), anyString(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    void monotonicAcrossFullSequences() {
+        long last = 0;
+        for (int i = 0; i < 3 * 4096; i++) {
+            long id = worker.nextId();
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    void smallClockBackwardReusesLastMillis() throws Exception {
+        long previous = worker.nextId();
+        long ahead = now() + 50;
+        lastIssued(ahead, 7);
+
+        long id = worker.nextId();
+        assertEquals(ahead, timeOf(id));
+        assertEquals(8, sequenceOf(id));
+        assertTrue(id > previous);
+        assertEquals(1L, worker.stats().get("clockBackward"));
+    }
+
+    @Test
+    void largeClockBackwardRejected() throws Exception {
+        worker.nextId();
+        lastIssued(now() + 1000, 0);
+
+        assertThrows(IllegalStateException.class, () -> worker.nextId());
+        assertEquals(1L, worker.stats().get("rejected"));
+    }
+
+    @Test
+    void exhaustedSequenceWaitsForNextMillis() throws Exception {
+        worker.nextId();
+        long last = now() + 3;
+        lastIssued(last, SEQUENCE_MASK);
+
+        long id = worker.nextId();
+        assertTrue(timeOf(id) > last);
+        assertEquals(0, sequenceOf(id));
+        assertTrue(timeOf(id) <= now());
+        assertTrue((long) worker.stats().get("sequenceWaits") > 0);
+        assertEquals(0L, worker.stats().get("borrowed"));
+    }
+
+    @Test
+    void exhaustedSequenceBorrowsNextMillis() throws Exception {
+        properties.getSnowflake().setExhaustion("borrow");
+        worker.nextId();
+        long last = now() + 3;
+        lastIssued(last, SEQUENCE_MASK);
+
+        // 领先时钟不超过 maxBorrowMillis，直接使用下一毫秒，不等待
+        long id = worker.nextId();
+        assertEquals(last + 1, timeOf(id));
+        assertEquals(0, sequenceOf(id));
+        assertEquals(1L, worker.stats().get("borrowed"));
+        assertEquals(0L, worker.stats().get("sequenceWaits"));
+    }
+
+    @Test
+    void borrowLimitedByMaxBorrowMillis() throws Exception {
+        properties.getSnowflake().setExhaustion("borrow");
+        worker.nextId();
+        long last = now() + 5;
+        lastIssued(last, SEQUENCE_MASK);
+
+        // 借用下一毫秒会领先时钟6ms，先等待时钟追上
+        long id = worker.nextId();
+        assertEquals(last + 1, timeOf(id));
+        assertTrue(timeOf(id) - now() <= 5);
+        assertTrue((long) worker.stats().get("sequenceWaits") > 0);
+    }
+
+    @Test
+    void concurrentIdsUnique() throws Exception {
+        properties.getSnowflake().setExhaustion("borrow");
+        int threads = 8;
+        int perThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = worker.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>(threads * perThread * 2);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < ids.length; i++) {
+                    assertTrue(all.add(ids[i]), "重复的id: " + ids[i]);
+                    if (i > 0) {
+                        assertTrue(ids[i] > ids[i - 1]);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
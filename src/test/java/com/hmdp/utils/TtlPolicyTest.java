@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TtlPolicy：随机抖动范围、上下限、热度系数
+ */
+class TtlPolicyTest {
+    private static final long BASE = 1800;
+
+    @Test
+    void jitterWithinBounds() {
+        TtlPolicy policy = new TtlPolicy(0.1, 0, 0, false, 1, 1, 1);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 10000; i++) {
+            long seconds = policy.apply("cache:shop:" + i, BASE);
+            assertTrue(seconds >= 1620 && seconds <= 1980, "超出抖动范围: " + seconds);
+            min = Math.min(min, seconds);
+            max = Math.max(max, seconds);
+        }
+        // 抖动确实分散开了，两端都接近边界
+        assertTrue(min < 1650, "最小值: " + min);
+        assertTrue(max > 1950, "最大值: " + max);
+        assertEquals(10000L, policy.stats().get("count"));
+    }
+
+    @Test
+    void noJitterKeepsBase() {
+        TtlPolicy policy = new TtlPolicy(0, 0, 0, false, 1, 1, 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(BASE, policy.apply("cache:shop:" + i, BASE));
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Long> distribution = (Map<String, Long>) policy.stats().get("ratioToBase");
+        assertEquals(100L, distribution.get("<1.2"));
+    }
+
+    @Test
+    void clampedToMinAndMax() {
+        TtlPolicy policy = new TtlPolicy(0.5, 1000, 2000, false, 1, 1, 1);
+        for (int i = 0; i < 10000; i++) {
+            long seconds = policy.apply("cache:shop:" + i, BASE);
+            assertTrue(seconds >= 1000 && seconds <= 2000, "超出上下限: " + seconds);
+        }
+        // 下限为0时TTL至少为1秒
+        TtlPolicy zero = new TtlPolicy(0.5, 0, 0, false, 1, 1, 1);
+        assertEquals(1, zero.apply("cache:shop:1", 0));
+        assertEquals(1, zero.apply("cache:shop:1", 1));
+    }
+
+    @Test
+    void adaptiveScalesWithHotness() {
+        TtlPolicy policy = new TtlPolicy(0, 0, 0, true, 10, 0.5, 2);
+        // 从未访问：coldFactor
+        assertEquals(900, policy.apply("cache:shop:cold", BASE));
+
+        for (int i = 0; i < 10; i++) {
+            policy.recordAccess("cache:shop:warm");
+        }
+        assertEquals(BASE, policy.apply("cache:shop:warm", BASE));
+
+        for (int i = 0; i < 1000; i++) {
+            policy.recordAccess("cache:shop:hot");
+        }
+        long hot = policy.apply("cache:shop:hot", BASE);
+        assertTrue(hot > BASE && hot <= 2 * BASE, "热点TTL: " + hot);
+    }
+
+    @Test
+    void adaptiveStillJitteredAndClamped() {
+        TtlPolicy policy = new TtlPolicy(0.2, 600, 3000, true, 10, 0.1, 3);
+        for (int i = 0; i < 1000; i++) {
+            policy.recordAccess("cache:shop:hot");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.apply("cache:shop:cold" + i, BASE) >= 600);
+            assertTrue(policy.apply("cache:shop:hot", BASE) <= 3000);
+        }
+    }
+}